@@ -0,0 +1,247 @@
+package sequencemining.main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.transaction.TransactionDatabase;
+import sequencemining.util.Tuple2;
+
+/**
+ * Persistent queue of the candidates joined from pairs of model sequences,
+ * kept across structural steps instead of being regenerated at each step.
+ * <p>
+ * The frontier counts the pairs of model sequences generating each candidate
+ * that has not been seen yet. At each step it only joins sequences added to
+ * the model with the others and drops the joins of sequences removed from it,
+ * so it holds exactly the candidates a full enumeration would. It is only kept
+ * while the number of generating pairs stays below the max. no. of structure
+ * steps, as a full enumeration would be cut off there (and candidate supports
+ * must be counted on the full database, as they are never re-ranked).
+ */
+public class CandidateFrontier {
+
+	private final CandidateStore candidateSupports;
+	private final HashMap<Sequence, Integer> supports;
+	private final CooccurrenceIndex cooccurrences;
+	private final int maxPairs;
+
+	/**
+	 * Unseen candidates that may be supported, in order of decreasing support
+	 * (or support bound, if not counted yet)
+	 */
+	private final CandidateQueue queue;
+
+	/** No. of pairs of model sequences generating each unseen candidate */
+	private final Map<Sequence, Integer> noPairs = new HashMap<>();
+	private final Map<Sequence, Tuple2<Sequence, Sequence>> parents = new HashMap<>();
+	private int totalPairs = 0;
+
+	/** Model sequences the frontier was built against (null if invalid) */
+	private Set<Sequence> members;
+
+	private int noUpdates = 0;
+	private int noRebuilds = 0;
+	private int noFallbacks = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param candidateSupports
+	 *            supports of the candidates
+	 * @param supports
+	 *            supports of the model sequences (bounding those of their
+	 *            joins)
+	 * @param cooccurrences
+	 *            transactions containing each model sequence (null to join
+	 *            all pairs)
+	 * @param maxPairs
+	 *            max. no. of generating pairs (i.e. structure steps)
+	 */
+	public CandidateFrontier(final CandidateStore candidateSupports, final HashMap<Sequence, Integer> supports,
+			final CooccurrenceIndex cooccurrences, final int maxPairs) {
+		this.candidateSupports = candidateSupports;
+		this.supports = supports;
+		this.cooccurrences = cooccurrences;
+		this.maxPairs = maxPairs;
+		this.queue = new CandidateQueue(maxPairs);
+	}
+
+	/**
+	 * Bring the frontier up to date with the given model sequences, skipping
+	 * the rejected (i.e. seen) candidates
+	 *
+	 * @return false if there are too many generating pairs to keep a frontier
+	 *         (the candidates must then be enumerated from scratch)
+	 */
+	public boolean update(final Set<Sequence> sequences, final CandidateStore rejected,
+			final TransactionDatabase transactions, final ExecutionContext context) {
+		if (members == null)
+			noRebuilds++;
+		else
+			noUpdates++;
+
+		// Drop seen candidates (polled from the queue)
+		for (final Iterator<Entry<Sequence, Integer>> it = noPairs.entrySet().iterator(); it.hasNext();) {
+			final Entry<Sequence, Integer> entry = it.next();
+			if (rejected.contains(entry.getKey())) {
+				totalPairs -= entry.getValue();
+				parents.remove(entry.getKey());
+				it.remove();
+			}
+		}
+
+		// Drop joins of removed sequences
+		final Set<Sequence> retained = members == null ? new HashSet<>() : new HashSet<>(members);
+		final List<Sequence> removed = new ArrayList<>(retained);
+		removed.removeAll(sequences);
+		final Set<Sequence> orphaned = new HashSet<>();
+		boolean dropped = false;
+		for (final Sequence seq : removed) {
+			retained.remove(seq);
+			for (final Sequence other : retained)
+				dropped |= removePair(seq, other, orphaned) | removePair(other, seq, orphaned);
+		}
+		if (dropped)
+			queue.removeIf(cand -> !noPairs.containsKey(cand));
+
+		// Point candidates whose parents were removed at a remaining pair (once
+		// all joins of removed sequences are dropped)
+		for (final Sequence cand : orphaned) {
+			if (!noPairs.containsKey(cand))
+				continue;
+			final Tuple2<Sequence, Sequence> pair = findPair(cand, retained);
+			if (pair == null)
+				parents.remove(cand);
+			else
+				parents.put(cand, pair);
+		}
+
+		// Join added sequences with the others
+		final List<Sequence> added = new ArrayList<>(sequences);
+		added.removeAll(retained);
+		final Map<Sequence, Integer> uncached = new HashMap<>();
+		for (final Sequence seq : added) {
+			for (final Sequence other : retained) {
+				addPair(seq, other, rejected, uncached);
+				addPair(other, seq, rejected, uncached);
+			}
+			retained.add(seq);
+			if (totalPairs >= maxPairs) {
+				invalidate();
+				noFallbacks++;
+				return false;
+			}
+		}
+		members = retained;
+
+		// Queue new candidates (ignoring unsupported ones)
+		SequenceMiningCore.queueUncounted(uncached, queue, candidateSupports, transactions,
+				SequenceMiningCore.LAZY_SUPPORTS, SequenceMiningCore.getSupportEstimator(cooccurrences, parents),
+				context);
+		return true;
+	}
+
+	/**
+	 * Queue of unseen candidates (candidates polled but not rejected must be
+	 * added back)
+	 */
+	public CandidateQueue getQueue() {
+		return queue;
+	}
+
+	/** Pair of model sequences (first) generating each candidate */
+	public Map<Sequence, Tuple2<Sequence, Sequence>> getParents() {
+		return parents;
+	}
+
+	/** Forget all candidates (e.g. when rejected candidates are revived) */
+	public void invalidate() {
+		queue.clear();
+		noPairs.clear();
+		parents.clear();
+		totalPairs = 0;
+		members = null;
+	}
+
+	/** Pretty printing of the frontier statistics */
+	public String statsToString() {
+		return String.format(" Candidate frontier: %d incremental updates, %d rebuilds, %d full enumerations%n",
+				noUpdates, noRebuilds - noFallbacks, noFallbacks);
+	}
+
+	private void addPair(final Sequence seq1, final Sequence seq2, final CandidateStore rejected,
+			final Map<Sequence, Integer> uncached) {
+		final int bound = cooccurrences == null ? Integer.MAX_VALUE : cooccurrences.getSupportBound(seq1, seq2);
+		if (bound == 0) { // no shared transaction
+			cooccurrences.addSkipped(1);
+			return;
+		}
+		final Sequence cand = new Sequence(seq1, seq2);
+		if (rejected.contains(cand))
+			return;
+		totalPairs++;
+		final Integer pairs = noPairs.get(cand);
+		if (pairs != null) {
+			noPairs.put(cand, pairs + 1);
+			return;
+		}
+		noPairs.put(cand, 1);
+		parents.put(cand, new Tuple2<>(seq1, seq2));
+		final Integer supp = candidateSupports.get(cand);
+		if (supp == null) // bounded by parent supports
+			uncached.merge(cand, SequenceMiningCore.getSupportBound(seq1, seq2, supports, bound, null), Math::min);
+		else if (supp != 0) // counted or bounded
+			queue.add(cand, supp);
+	}
+
+	/**
+	 * Remove the given pair, adding the candidate to the orphaned ones if the
+	 * removed pair was recorded as its parents but other pairs remain
+	 *
+	 * @return true if the candidate is no longer generated
+	 */
+	private boolean removePair(final Sequence seq1, final Sequence seq2, final Set<Sequence> orphaned) {
+		if (cooccurrences != null && cooccurrences.getSupportBound(seq1, seq2) == 0) // never added
+			return false;
+		final Sequence cand = new Sequence(seq1, seq2);
+		final Integer pairs = noPairs.get(cand);
+		if (pairs == null) // seen
+			return false;
+		totalPairs--;
+		final Tuple2<Sequence, Sequence> parent = parents.get(cand);
+		final boolean isParent = parent != null && parent._1.equals(seq1) && parent._2.equals(seq2);
+		if (pairs > 1) {
+			noPairs.put(cand, pairs - 1);
+			if (isParent)
+				orphaned.add(cand);
+			return false;
+		}
+		noPairs.remove(cand);
+		parents.remove(cand);
+		return true;
+	}
+
+	/**
+	 * Pair of the given sequences generating the given candidate (null if
+	 * there is none)
+	 */
+	private Tuple2<Sequence, Sequence> findPair(final Sequence cand, final Set<Sequence> sequences) {
+		final List<Integer> items = cand.getItems();
+		for (int split = 1; split < items.size(); split++) {
+			final Sequence seq1 = new Sequence(items.subList(0, split));
+			final Sequence seq2 = new Sequence(items.subList(split, items.size()));
+			if (!seq1.equals(seq2) && sequences.contains(seq1) && sequences.contains(seq2)
+					&& (cooccurrences == null || cooccurrences.getSupportBound(seq1, seq2) > 0))
+				return new Tuple2<>(seq1, seq2);
+		}
+		return null;
+	}
+
+}
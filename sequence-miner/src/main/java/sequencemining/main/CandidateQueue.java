@@ -0,0 +1,139 @@
+package sequencemining.main;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Priority queue of candidate sequences by decreasing support, ties broken by
+ * {@link Sequence#ITEM_ORDER}. Each candidate is queued with its support (as
+ * stored in the candidate support store, i.e. negated if it is only a bound,
+ * or its negated support estimate if it is ranked by estimate),
+ * kept in a primitive array so comparisons don't look up supports or allocate.
+ * Candidates can be queued more than once.
+ */
+public class CandidateQueue {
+
+	private Sequence[] candidates;
+	private int[] supports;
+	private int size = 0;
+
+	public CandidateQueue(final int initialCapacity) {
+		candidates = new Sequence[Math.max(initialCapacity, 1)];
+		supports = new int[candidates.length];
+	}
+
+	/**
+	 * Queue given candidate
+	 *
+	 * @param support
+	 *            its support (negated if only an upper bound or estimate)
+	 */
+	public void add(final Sequence candidate, final int support) {
+		if (size == candidates.length) {
+			candidates = Arrays.copyOf(candidates, 2 * size);
+			supports = Arrays.copyOf(supports, 2 * size);
+		}
+		candidates[size] = candidate;
+		supports[size] = support;
+		siftUp(size++);
+	}
+
+	/** Candidate with the highest support (null if empty) */
+	public Sequence peek() {
+		return size == 0 ? null : candidates[0];
+	}
+
+	/** Support queued with the head candidate (negative if not counted) */
+	public int peekSupport() {
+		if (size == 0)
+			throw new IllegalStateException("Queue is empty.");
+		return supports[0];
+	}
+
+	/** Remove the candidate with the highest support (null if empty) */
+	public Sequence poll() {
+		if (size == 0)
+			return null;
+		final Sequence head = candidates[0];
+		size--;
+		candidates[0] = candidates[size];
+		supports[0] = supports[size];
+		candidates[size] = null;
+		if (size > 0)
+			siftDown(0);
+		return head;
+	}
+
+	/** Remove all candidates matching the given filter */
+	public void removeIf(final Predicate<Sequence> filter) {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (!filter.test(candidates[i])) {
+				candidates[kept] = candidates[i];
+				supports[kept] = supports[i];
+				kept++;
+			}
+		}
+		Arrays.fill(candidates, kept, size, null);
+		size = kept;
+		for (int i = size / 2 - 1; i >= 0; i--)
+			siftDown(i);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(candidates, 0, size, null);
+		size = 0;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			final int parent = (i - 1) / 2;
+			if (!precedes(i, parent))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			final int left = 2 * i + 1;
+			if (left >= size)
+				break;
+			final int child = left + 1 < size && precedes(left + 1, left) ? left + 1 : left;
+			if (!precedes(child, i))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	/** Does the candidate at position i come strictly before that at j? */
+	private boolean precedes(final int i, final int j) {
+		final int supp1 = Math.abs(supports[i]);
+		final int supp2 = Math.abs(supports[j]);
+		if (supp1 != supp2)
+			return supp1 > supp2;
+		return Sequence.ITEM_ORDER.compare(candidates[i], candidates[j]) < 0;
+	}
+
+	private void swap(final int i, final int j) {
+		final Sequence candidate = candidates[i];
+		candidates[i] = candidates[j];
+		candidates[j] = candidate;
+		final int support = supports[i];
+		supports[i] = supports[j];
+		supports[j] = support;
+	}
+
+}
@@ -0,0 +1,358 @@
+package sequencemining.main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Store of candidate sequences (and their supports) seen by the structural
+ * search, which can be bounded in memory for long runs.
+ * <p>
+ * An unbounded store is a concurrent hash map. A bounded store keeps the most
+ * recently used entries in memory and appends the least recently used ones to
+ * a temporary file once the memory budget is exceeded. Spilled entries are
+ * looked up through an index from their 64-bit fingerprint to their offset in
+ * the file (a few bytes per entry) and moved back into memory when used. A
+ * Bloom filter over all entries answers most lookups of absent sequences
+ * without probing the cache or the index.
+ * <p>
+ * Sequences whose fingerprints collide may be forgotten (as if never stored).
+ * The store is thread-safe (a bounded store serializes all operations).
+ */
+public class CandidateStore implements Closeable {
+
+	/** Estimated memory of a cached entry and of each of its items (bytes) */
+	private static final int ENTRY_BYTES = 112;
+	private static final int ITEM_BYTES = 20;
+
+	/** Memory of the index per spilled entry (fingerprint and offset) */
+	private static final int INDEX_BYTES = 32;
+
+	/** Fraction of the memory budget used by the Bloom filter */
+	private static final int BLOOM_FRACTION = 8;
+	private static final int BLOOM_HASHES = 4;
+
+	private final long memoryBudget;
+	private final Map<Sequence, Integer> cache;
+	private long cacheBytes = 0;
+
+	private final long[] bloom;
+	private final FingerprintIndex index = new FingerprintIndex();
+	private File segmentFile;
+	private RandomAccessFile segment;
+
+	private long noSpilled = 0;
+	private long noDiskReads = 0;
+	private long noBloomNegatives = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param memoryBudget
+	 *            max. memory used by the store in bytes (0 for unbounded)
+	 */
+	public CandidateStore(final long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		if (memoryBudget > 0) {
+			this.cache = new LinkedHashMap<>(16, 0.75f, true);
+			this.bloom = new long[(int) Math.min(Math.max(memoryBudget / BLOOM_FRACTION / 8, 1),
+					Integer.MAX_VALUE - 8)];
+		} else {
+			this.cache = new ConcurrentHashMap<>();
+			this.bloom = null;
+		}
+	}
+
+	/** Is the given sequence in the store? */
+	public boolean contains(final Sequence seq) {
+		return get(seq) != null;
+	}
+
+	/** Get the value of the given sequence (null if not in the store) */
+	public Integer get(final Sequence seq) {
+		if (bloom == null)
+			return cache.get(seq);
+		synchronized (this) {
+			return getSpillable(seq);
+		}
+	}
+
+	private Integer getSpillable(final Sequence seq) {
+		final long fingerprint = fingerprint(seq);
+		if (!mightContain(fingerprint)) {
+			noBloomNegatives++;
+			return null;
+		}
+		final Integer value = cache.get(seq);
+		if (value != null || index.size() == 0)
+			return value;
+		final long offset = index.get(fingerprint);
+		if (offset < 0)
+			return null;
+		final Integer spilledValue = read(seq, offset);
+		if (spilledValue != null) { // recently used
+			index.remove(fingerprint);
+			addToCache(seq, spilledValue);
+			spill();
+		}
+		return spilledValue;
+	}
+
+	/** Add the given sequence (when used as a set) */
+	public void add(final Sequence seq) {
+		put(seq, 0);
+	}
+
+	/** Set the value of the given sequence */
+	public void put(final Sequence seq, final int value) {
+		if (bloom == null) {
+			cache.put(seq, value);
+			return;
+		}
+		synchronized (this) {
+			final long fingerprint = fingerprint(seq);
+			addToBloom(fingerprint);
+			if (index.size() > 0)
+				index.remove(fingerprint); // spilled value is stale
+			addToCache(seq, value);
+			spill();
+		}
+	}
+
+	/** Remove the given sequences */
+	public synchronized void removeAll(final Collection<Sequence> seqs) {
+		for (final Sequence seq : seqs) {
+			if (cache.remove(seq) != null)
+				cacheBytes -= getBytes(seq);
+			else if (bloom != null && index.size() > 0)
+				index.remove(fingerprint(seq));
+		}
+	}
+
+	/** No. of sequences in the store */
+	public synchronized int size() {
+		return cache.size() + index.size();
+	}
+
+	/** Remove the temporary file of spilled entries */
+	@Override
+	public synchronized void close() {
+		if (segment == null)
+			return;
+		try {
+			segment.close();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			segmentFile.delete();
+			segment = null;
+		}
+	}
+
+	/** Pretty printing of the store statistics */
+	public synchronized String statsToString() {
+		if (bloom == null)
+			return String.format("%d entries in memory", cache.size());
+		return String.format("%d entries (%d spilled, %.1f MB on disk), %d disk reads, %d Bloom negatives", size(),
+				noSpilled, getSegmentLength() / (1024. * 1024.), noDiskReads, noBloomNegatives);
+	}
+
+	private void addToCache(final Sequence seq, final int value) {
+		if (cache.put(seq, value) == null)
+			cacheBytes += getBytes(seq);
+	}
+
+	/** Append least recently used entries to the file until within budget */
+	private void spill() {
+		final long cacheBudget = memoryBudget - 8L * bloom.length - (long) INDEX_BYTES * index.size();
+		if (cacheBytes <= cacheBudget)
+			return;
+		final Iterator<Entry<Sequence, Integer>> it = cache.entrySet().iterator();
+		while (cacheBytes > cacheBudget && cache.size() > 1) {
+			final Entry<Sequence, Integer> entry = it.next();
+			final Sequence seq = entry.getKey();
+			index.put(fingerprint(seq), append(seq, entry.getValue()));
+			cacheBytes -= getBytes(seq);
+			it.remove();
+			noSpilled++;
+		}
+	}
+
+	/**
+	 * Append record (no. items, items, value) to the file
+	 *
+	 * @return offset of the record
+	 */
+	private long append(final Sequence seq, final int value) {
+		final List<Integer> items = seq.getItems();
+		final ByteBuffer record = ByteBuffer.allocate(4 * (items.size() + 2));
+		record.putInt(items.size());
+		for (final int item : items)
+			record.putInt(item);
+		record.putInt(value);
+		try {
+			if (segment == null) {
+				segmentFile = File.createTempFile("candidates", ".seg");
+				segmentFile.deleteOnExit();
+				segment = new RandomAccessFile(segmentFile, "rw");
+			}
+			final long offset = segment.length();
+			segment.seek(offset);
+			segment.write(record.array());
+			return offset;
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/** Read the value of the given sequence (null if another is stored) */
+	private Integer read(final Sequence seq, final long offset) {
+		noDiskReads++;
+		final List<Integer> items = seq.getItems();
+		try {
+			segment.seek(offset);
+			if (segment.readInt() != items.size())
+				return null;
+			final ByteBuffer record = ByteBuffer.allocate(4 * (items.size() + 1));
+			segment.readFully(record.array());
+			for (final int item : items) {
+				if (record.getInt() != item)
+					return null;
+			}
+			return record.getInt();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private long getSegmentLength() {
+		try {
+			return segment == null ? 0 : segment.length();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static long getBytes(final Sequence seq) {
+		return ENTRY_BYTES + ITEM_BYTES * seq.size();
+	}
+
+	private boolean mightContain(final long fingerprint) {
+		final long noBits = 64L * bloom.length;
+		final int hash1 = (int) fingerprint;
+		final int hash2 = (int) (fingerprint >>> 32);
+		for (int i = 1; i <= BLOOM_HASHES; i++) {
+			final long bit = Math.floorMod(hash1 + (long) i * hash2, noBits);
+			if ((bloom[(int) (bit >>> 6)] & 1L << bit) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	private void addToBloom(final long fingerprint) {
+		final long noBits = 64L * bloom.length;
+		final int hash1 = (int) fingerprint;
+		final int hash2 = (int) (fingerprint >>> 32);
+		for (int i = 1; i <= BLOOM_HASHES; i++) {
+			final long bit = Math.floorMod(hash1 + (long) i * hash2, noBits);
+			bloom[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/** 64-bit fingerprint of the items of a sequence (never 0) */
+	private static long fingerprint(final Sequence seq) {
+		long hash = 0xcbf29ce484222325L;
+		for (final int item : seq.getItems()) {
+			hash ^= item;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	/** Open addressing hash table from fingerprints to file offsets */
+	private static class FingerprintIndex {
+		private long[] keys = new long[16];
+		private long[] offsets = new long[16];
+		private int size = 0;
+
+		private int size() {
+			return size;
+		}
+
+		/** @return offset of the given fingerprint or -1 if absent */
+		private long get(final long key) {
+			for (int i = slot(key, keys.length);; i = (i + 1) & (keys.length - 1)) {
+				if (keys[i] == key)
+					return offsets[i];
+				if (keys[i] == 0)
+					return -1;
+			}
+		}
+
+		private void put(final long key, final long offset) {
+			if (2 * (size + 1) > keys.length)
+				resize();
+			int i = slot(key, keys.length);
+			while (keys[i] != 0 && keys[i] != key)
+				i = (i + 1) & (keys.length - 1);
+			if (keys[i] == 0)
+				size++;
+			keys[i] = key;
+			offsets[i] = offset;
+		}
+
+		/** Remove the given fingerprint (shifting back later entries) */
+		private void remove(final long key) {
+			final int mask = keys.length - 1;
+			int i = slot(key, keys.length);
+			while (keys[i] != key) {
+				if (keys[i] == 0)
+					return;
+				i = (i + 1) & mask;
+			}
+			keys[i] = 0;
+			size--;
+			for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+				final int k = slot(keys[j], keys.length);
+				if (i <= j ? i < k && k <= j : i < k || k <= j)
+					continue; // already reachable from its slot
+				keys[i] = keys[j];
+				offsets[i] = offsets[j];
+				keys[j] = 0;
+				i = j;
+			}
+		}
+
+		private void resize() {
+			final long[] oldKeys = keys;
+			final long[] oldOffsets = offsets;
+			keys = new long[2 * oldKeys.length];
+			offsets = new long[2 * oldKeys.length];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != 0)
+					put(oldKeys[i], oldOffsets[i]);
+			}
+		}
+
+		private static int slot(final long key, final int length) {
+			return (int) (key ^ key >>> 32) & (length - 1);
+		}
+	}
+
+}
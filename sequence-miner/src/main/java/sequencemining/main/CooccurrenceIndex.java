@@ -0,0 +1,218 @@
+package sequencemining.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.transaction.Transaction;
+import sequencemining.transaction.TransactionDatabase;
+
+/**
+ * Index of the transactions containing each model sequence (as a sorted array
+ * of transaction positions, or as a bitmap over them once that is smaller).
+ * <p>
+ * A transaction supporting the join of two sequences supports both, so the
+ * no. of transactions the two share bounds the support of their join. Joins of
+ * sequences that share no transaction are skipped before the candidate is even
+ * built. Supports of joins can also be estimated from a sample of the shared
+ * transactions. Tid sets are only computed for sequences new to the model (or
+ * for all of them when the transactions change, e.g. with mini-batches) and
+ * those of removed sequences are kept for one more update, so that their joins
+ * can still be matched.
+ */
+public class CooccurrenceIndex {
+
+	private TransactionDatabase transactions;
+	private final Map<Sequence, TidSet> tidSets = new HashMap<>();
+	private Set<Sequence> previous = new HashSet<>();
+
+	private long noSkipped = 0;
+
+	/** Index the given model sequences in the given transactions */
+	public void update(final Set<Sequence> sequences, final TransactionDatabase transactions,
+			final ExecutionContext context) {
+		if (transactions != this.transactions) {
+			this.transactions = transactions;
+			tidSets.clear();
+		}
+		tidSets.keySet().removeIf(seq -> !sequences.contains(seq) && !previous.contains(seq));
+		previous = new HashSet<>(sequences);
+
+		final List<Sequence> unindexed = new ArrayList<>();
+		for (final Sequence seq : sequences) {
+			if (!tidSets.containsKey(seq))
+				unindexed.add(seq);
+		}
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final List<TidSet> newTidSets = context.invokeAll(unindexed, seq -> {
+			int[] tids = new int[16];
+			int size = 0;
+			for (int t = 0; t < transactionList.size(); t++) {
+				if (transactionList.get(t).contains(seq)) {
+					if (size == tids.length)
+						tids = Arrays.copyOf(tids, 2 * size);
+					tids[size++] = t;
+				}
+			}
+			return TidSet.create(Arrays.copyOf(tids, size), transactionList.size());
+		});
+		for (int i = 0; i < unindexed.size(); i++)
+			tidSets.put(unindexed.get(i), newTidSets.get(i));
+	}
+
+	/**
+	 * Support bound of the join of the given sequences, i.e. the (weighted)
+	 * no. of transactions containing both (max. int if either isn't indexed)
+	 */
+	public int getSupportBound(final Sequence seq1, final Sequence seq2) {
+		final TidSet tids1 = tidSets.get(seq1);
+		final TidSet tids2 = tidSets.get(seq2);
+		if (tids1 == null || tids2 == null)
+			return Integer.MAX_VALUE;
+		return (int) Math.round(tids1.countShared(tids2) * transactions.getSampleWeight());
+	}
+
+	/**
+	 * Estimate the support of the given join of two indexed sequences from an
+	 * evenly spaced sample of (at most sampleSize of) their shared transactions
+	 * (never below one if they share any, as only counting can rule it out)
+	 */
+	public int estimateSupport(final Sequence cand, final Sequence seq1, final Sequence seq2, final int sampleSize) {
+		final int[] shared = tidSets.get(seq1).getShared(tidSets.get(seq2));
+		if (shared.length == 0)
+			return 0;
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final int step = (shared.length + sampleSize - 1) / sampleSize;
+		int noSampled = 0;
+		int noSupported = 0;
+		for (int i = 0; i < shared.length; i += step) {
+			noSampled++;
+			if (transactionList.get(shared[i]).contains(cand))
+				noSupported++;
+		}
+		final double estimate = (double) noSupported / noSampled * shared.length * transactions.getSampleWeight();
+		return (int) Math.max(Math.round(estimate), 1);
+	}
+
+	/** Record the given no. of joins skipped as unsupported */
+	public synchronized void addSkipped(final long noJoins) {
+		noSkipped += noJoins;
+	}
+
+	/** Pretty printing of the index statistics */
+	public String statsToString() {
+		long noBytes = 0;
+		int noBitmaps = 0;
+		for (final TidSet tids : tidSets.values()) {
+			noBytes += tids.getSizeInBytes();
+			if (tids.bitmap != null)
+				noBitmaps++;
+		}
+		return String.format(" Co-occurrence index: %d joins skipped, %d sequences indexed (%d as bitmaps, %.1f MB)%n",
+				noSkipped, tidSets.size(), noBitmaps, noBytes / (1024. * 1024.));
+	}
+
+	/**
+	 * Positions of the transactions containing a sequence, either as a sorted
+	 * array or (if smaller) as a bitmap over all positions
+	 */
+	static class TidSet {
+		private final int[] tids;
+		private final long[] bitmap;
+
+		private TidSet(final int[] tids, final long[] bitmap) {
+			this.tids = tids;
+			this.bitmap = bitmap;
+		}
+
+		/** Tid set of the given sorted positions among noTransactions */
+		static TidSet create(final int[] tids, final int noTransactions) {
+			if ((long) tids.length * Integer.SIZE < noTransactions)
+				return new TidSet(tids, null);
+			final long[] bitmap = new long[(noTransactions + 63) >>> 6];
+			for (final int t : tids)
+				bitmap[t >>> 6] |= 1L << t;
+			return new TidSet(null, bitmap);
+		}
+
+		private boolean contains(final int t) {
+			return (bitmap[t >>> 6] & 1L << t) != 0;
+		}
+
+		/** No. of positions shared with the given tid set */
+		int countShared(final TidSet other) {
+			if (bitmap != null && other.bitmap != null) {
+				int count = 0;
+				for (int w = 0; w < bitmap.length; w++)
+					count += Long.bitCount(bitmap[w] & other.bitmap[w]);
+				return count;
+			}
+			if (bitmap != null)
+				return other.countShared(this);
+			int count = 0;
+			if (other.bitmap != null) {
+				for (final int t : tids) {
+					if (other.contains(t))
+						count++;
+				}
+				return count;
+			}
+			for (int i = 0, j = 0; i < tids.length && j < other.tids.length;) { // merge
+				if (tids[i] < other.tids[j])
+					i++;
+				else if (tids[i] > other.tids[j])
+					j++;
+				else {
+					count++;
+					i++;
+					j++;
+				}
+			}
+			return count;
+		}
+
+		/** Sorted positions shared with the given tid set */
+		int[] getShared(final TidSet other) {
+			final int[] shared = new int[countShared(other)];
+			int size = 0;
+			if (bitmap != null && other.bitmap != null) {
+				for (int w = 0; w < bitmap.length; w++) {
+					for (long word = bitmap[w] & other.bitmap[w]; word != 0; word &= word - 1)
+						shared[size++] = 64 * w + Long.numberOfTrailingZeros(word);
+				}
+				return shared;
+			}
+			if (bitmap != null)
+				return other.getShared(this);
+			if (other.bitmap != null) {
+				for (final int t : tids) {
+					if (other.contains(t))
+						shared[size++] = t;
+				}
+				return shared;
+			}
+			for (int i = 0, j = 0; i < tids.length && j < other.tids.length;) { // merge
+				if (tids[i] < other.tids[j])
+					i++;
+				else if (tids[i] > other.tids[j])
+					j++;
+				else {
+					shared[size++] = tids[i];
+					i++;
+					j++;
+				}
+			}
+			return shared;
+		}
+
+		long getSizeInBytes() {
+			return bitmap != null ? 8L * bitmap.length : 4L * tids.length;
+		}
+	}
+
+}
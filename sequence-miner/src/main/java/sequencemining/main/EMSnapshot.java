@@ -0,0 +1,76 @@
+package sequencemining.main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.transaction.CoveringCounts;
+import sequencemining.transaction.LogProbabilities;
+import sequencemining.transaction.Transaction;
+import sequencemining.transaction.TransactionDatabase;
+
+/**
+ * Snapshot of the state after a hard EM step: the model, the covering of each
+ * transaction (by reference, as coverings are never modified), the covering
+ * counts and the average cost. Restoring a snapshot avoids the extra EM steps
+ * otherwise needed to return to a previous state.
+ */
+public class EMSnapshot {
+
+	private final Table<Sequence, Integer, Double> sequences;
+	private final Map<Sequence, LogProbabilities> rows;
+	private final Map<Sequence, LogProbabilities> inferredRows;
+	private final List<Multiset<Sequence>> coverings;
+	private final CoveringCounts coveringCounts;
+	private final double averageCost;
+
+	/** Take snapshot of the current state of the transactions */
+	public EMSnapshot(final TransactionDatabase transactions, final Table<Sequence, Integer, Double> sequences,
+			final double averageCost) {
+		this.sequences = sequences;
+		this.rows = transactions.getCachedSequences();
+		this.inferredRows = transactions.getChangeTracker().getInferredRows();
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		this.coverings = new ArrayList<>(transactionList.size());
+		for (final Transaction transaction : transactionList)
+			coverings.add(transaction.getCachedCovering());
+		this.coveringCounts = transactions.getCoveringCounts().copy();
+		this.averageCost = averageCost;
+	}
+
+	/**
+	 * Check if the snapshot can be restored, i.e. the transactions still cache
+	 * all its sequences (singletons are never removed from the caches)
+	 */
+	public boolean isRestorable(final TransactionDatabase transactions) {
+		final Map<Sequence, LogProbabilities> cachedRows = transactions.getCachedSequences();
+		for (final Sequence seq : rows.keySet()) {
+			if (seq.size() > 1 && !cachedRows.containsKey(seq))
+				return false;
+		}
+		return true;
+	}
+
+	/** Restore the transactions to the state of this snapshot */
+	public void restore(final TransactionDatabase transactions, final ExecutionContext context) {
+		EMStep.updateCachedSequences(transactions, rows, context);
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		for (int i = 0; i < coverings.size(); i++)
+			transactionList.get(i).setCachedCovering(coverings.get(i));
+		transactions.setCoveringCounts(coveringCounts.copy());
+		transactions.getChangeTracker().setInferred(inferredRows, 0.);
+	}
+
+	public Table<Sequence, Integer, Double> getSequences() {
+		return sequences;
+	}
+
+	public double getAverageCost() {
+		return averageCost;
+	}
+
+}
@@ -3,20 +3,31 @@ package sequencemining.main;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.counting;
 import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
 
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Table;
 
+import sequencemining.main.ExecutionContext.Phase;
 import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.CandidateScan;
+import sequencemining.transaction.ChangeTracker;
+import sequencemining.transaction.CostStatistics;
+import sequencemining.transaction.CoveringCounts;
+import sequencemining.transaction.LengthOrder;
+import sequencemining.transaction.LogProbabilities;
 import sequencemining.transaction.Transaction;
 import sequencemining.transaction.TransactionDatabase;
 import sequencemining.util.Tuple2;
@@ -26,106 +37,197 @@ public class EMStep {
 
 	/** Initialize cached sequences */
 	static void initializeCachedSequences(final TransactionDatabase transactions,
-			final Table<Sequence, Integer, Double> initProbs) {
-		transactions.getTransactionList().parallelStream().forEach(t -> t.initializeCachedSequences(initProbs));
+			final Table<Sequence, Integer, Double> initProbs, final ExecutionContext context) {
+		initializeCachedSequences(transactions, initProbs, false, context);
 	}
 
-	/** EM-step for hard EM */
-	static Table<Sequence, Integer, Double> hardEMStep(final List<Transaction> transactions,
-			final InferenceAlgorithm inferenceAlgorithm) {
+	/**
+	 * Initialize cached sequences (caching zero-probability singletons for
+	 * items not covered by the model if coverAllItems)
+	 */
+	static void initializeCachedSequences(final TransactionDatabase transactions,
+			final Table<Sequence, Integer, Double> initProbs, final boolean coverAllItems,
+			final ExecutionContext context) {
+		final Map<Sequence, LogProbabilities> initRows = LogProbabilities.compile(initProbs);
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final Map<Sequence, List<Integer>> cachingTids = context.run(Phase.M_STEP,
+				() -> context.indices(Phase.M_STEP, transactions.getLengthOrder()).boxed().flatMap(tid -> {
+					final Transaction t = transactionList.get(tid);
+					t.initializeCachedSequences(initRows, coverAllItems);
+					return t.getCachedSequences().keySet().stream().map(seq -> new Tuple2<>(seq, tid));
+				}).collect(groupingBy(e -> e._1, mapping(e -> e._2, toList()))));
+		transactions.setCachedSequences(initRows);
+
+		// Index transactions caching each sequence
+		final Map<Sequence, int[]> index = new HashMap<>();
+		final Map<Sequence, Long> noCaching = new HashMap<>();
+		for (final Entry<Sequence, List<Integer>> entry : cachingTids.entrySet()) {
+			index.put(entry.getKey(), entry.getValue().stream().mapToInt(i -> i).sorted().toArray());
+			noCaching.put(entry.getKey(), (long) entry.getValue().size());
+		}
+		transactions.setChangeTracker(new ChangeTracker(index, transactions.size()));
+		transactions.setCostStatistics(new CostStatistics(noCaching, transactionList));
+	}
+
+	/** EM-step for hard EM (re-inferring only transactions that changed) */
+	static Table<Sequence, Integer, Double> hardEMStep(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final ExecutionContext context) {
+		return hardEMStep(transactions, inferenceAlgorithm, 0., context);
+	}
+
+	/**
+	 * EM-step for hard EM, re-inferring only transactions that cache a sequence
+	 * whose probabilities changed by more than changeTol since their covering
+	 * was inferred
+	 */
+	static Table<Sequence, Integer, Double> hardEMStep(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final double changeTol, final ExecutionContext context) {
 		final double noTransactions = transactions.size();
+		final ChangeTracker tracker = transactions.getChangeTracker();
+		final Map<Sequence, LogProbabilities> rows = transactions.getCachedSequences();
 
 		// E-step
-		final Map<Multiset.Entry<Sequence>, Long> coveringWithCounts = transactions.parallelStream().map(t -> {
-			final Multiset<Sequence> covering = inferenceAlgorithm.infer(t);
-			t.setCachedCovering(covering);
-			return covering.entrySet();
-		}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
+		final int[] affected = tracker.getAffected(rows, changeTol);
+		final CoveringCounts coveringCounts;
+		if (affected == null) {
+			final Map<Sequence, Integer> index = CoveringCounts.index(rows.keySet());
+			coveringCounts = context.run(Phase.E_STEP, () -> context.stream(Phase.E_STEP, transactions).map(t -> {
+				final Multiset<Sequence> covering = inferenceAlgorithm.infer(t);
+				t.setCachedCovering(covering);
+				return covering;
+			}).collect(CoveringCounts.collector(index)));
+			transactions.setCoveringCounts(coveringCounts);
+		} else { // only affected transactions
+			final LengthOrder order = new LengthOrder(transactions.getTransactionList(), affected);
+			coveringCounts = transactions.getCoveringCounts();
+			final CoveringCounts delta = context.run(Phase.E_STEP,
+					() -> context.stream(Phase.E_STEP, transactions, order).map(t -> {
+						final Multiset<Sequence> oldCovering = t.getCachedCovering();
+						final Multiset<Sequence> covering = inferenceAlgorithm.infer(t);
+						t.setCachedCovering(covering);
+						return new Tuple2<>(oldCovering, covering);
+					}).collect(CoveringCounts.deltaCollector(coveringCounts)));
+			coveringCounts.merge(delta);
+		}
+		tracker.setInferred(rows, changeTol);
 
 		// M-step
-		final Table<Sequence, Integer, Double> newSequences = coveringWithCounts.entrySet().parallelStream().collect(
-				HashBasedTable::create,
-				(t, e) -> t.put(e.getKey().getElement(), e.getKey().getCount(), e.getValue() / noTransactions),
-				Table::putAll);
-		newSequences.rowKeySet().parallelStream().forEach(seq -> {
-			// Pad with zero counts for non-occurrences
-			final int maxOccur = Collections.max(newSequences.row(seq).keySet());
-			for (int occur = 1; occur <= maxOccur; occur++) {
-				if (!newSequences.contains(seq, occur))
-					newSequences.put(seq, occur, 0.);
-			} // Add probabilities for zero occurrences
-			double rowSum = 0;
-			for (final Double count : newSequences.row(seq).values())
-				rowSum += count;
-			newSequences.put(seq, 0, 1 - rowSum);
-		});
+		final Table<Sequence, Integer, Double> newSequences = context.run(Phase.M_STEP,
+				() -> coveringCounts.toProbabilities(noTransactions));
 
 		// Update cached sequences
-		transactions.parallelStream().forEach(t -> t.updateCachedSequences(newSequences));
+		updateCachedSequences(transactions, newSequences, context);
 
 		return newSequences;
 	}
 
-	/** Get average cost of last EM-step */
-	static double calculateAverageCost(final TransactionDatabase transactions) {
-		final double noTransactions = transactions.size();
-		return transactions.getTransactionList().parallelStream().mapToDouble(Transaction::getCachedCost).sum()
-				/ noTransactions;
+	/**
+	 * Get average cost of last EM-step (from the sufficient statistics of the
+	 * cached coverings)
+	 */
+	static double calculateAverageCost(final TransactionDatabase transactions, final ExecutionContext context) {
+		final Map<Sequence, LogProbabilities> cachedRows = transactions.getCachedSequences();
+		return context.run(Phase.COST, () -> transactions.getCostStatistics()
+				.getAverageCost(transactions.getCoveringCounts(), cachedRows, cachedRows));
+	}
+
+	/**
+	 * Scan the database for the support, max. no. of repetitions and
+	 * supporting transactions of the given candidate (in a single pass)
+	 */
+	static CandidateScan scanCandidate(final TransactionDatabase transactions, final Sequence candidate,
+			final ExecutionContext context) {
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		return context.run(Phase.SUPPORT,
+				() -> context.indices(Phase.SUPPORT, transactions.getLengthOrder()).collect(CandidateScan::new,
+						(scan, tid) -> scan.add(tid, transactionList.get(tid).repetitions(candidate)),
+						CandidateScan::merge));
 	}
 
 	/** EM-step for structural EM */
 	static Tuple2<Double, Map<Integer, Double>> structuralEMStep(final TransactionDatabase transactions,
-			final InferenceAlgorithm inferenceAlgorithm, final Sequence candidate) {
+			final InferenceAlgorithm inferenceAlgorithm, final Sequence candidate, final CandidateScan scan,
+			final ExecutionContext context) {
+		final Map<Integer, Multiset<Sequence>> coverings = new ConcurrentHashMap<>(2 * scan.getSupport());
+		final Tuple2<Double, Map<Integer, Double>> costAndProb = structuralEMStep(transactions, inferenceAlgorithm,
+				candidate, scan, scan.getOrder(transactions.getTransactionList()), coverings, context);
+		scan.setCoverings(coverings);
+		return costAndProb;
+	}
+
+	/**
+	 * Estimate the cost of the structural EM-step by only re-inferring a random
+	 * sample of the given size of the transactions that support the candidate
+	 * (extrapolating the change in their covering counts to all of them)
+	 */
+	static double screenCandidate(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final Sequence candidate, final CandidateScan scan,
+			final int sampleSize, final Random random, final ExecutionContext context) {
+		final int[] tids = scan.getTids(); // copy, sorted so the seed fixes the sample
+		Arrays.sort(tids);
+		for (int i = 0; i < sampleSize; i++) { // partial Fisher-Yates shuffle
+			final int j = i + random.nextInt(tids.length - i);
+			final int tmp = tids[i];
+			tids[i] = tids[j];
+			tids[j] = tmp;
+		}
+		final LengthOrder sample = new LengthOrder(transactions.getTransactionList(),
+				Arrays.copyOf(tids, sampleSize));
+		return structuralEMStep(transactions, inferenceAlgorithm, candidate, scan, sample, null, context)._1;
+	}
+
+	/**
+	 * EM-step for structural EM re-inferring the given ordered subset of the
+	 * supporting transactions (storing their coverings if given a map)
+	 */
+	private static Tuple2<Double, Map<Integer, Double>> structuralEMStep(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final Sequence candidate, final CandidateScan scan,
+			final LengthOrder supporting, final Map<Integer, Multiset<Sequence>> coverings,
+			final ExecutionContext context) {
 		final double noTransactions = transactions.size();
 
-		// Calculate max. no. of candidate occurrences
-		final int maxReps = transactions.getTransactionList().parallelStream().mapToInt(t -> t.repetitions(candidate))
-				.max().getAsInt();
+		// Initial probabilities up to max. no. of candidate occurrences
 		final Map<Integer, Double> initProb = new HashMap<>();
 		initProb.put(0, 0.);
-		for (int occur = 1; occur <= maxReps; occur++)
+		for (int occur = 1; occur <= scan.getMaxReps(); occur++)
 			initProb.put(occur, 1.);
+		final LogProbabilities initRow = LogProbabilities.create(initProb);
 
-		// E-step (adding candidate to transactions that support it)
-		final Map<Multiset.Entry<Sequence>, Long> coveringWithCounts = transactions.getTransactionList()
-				.parallelStream().map(t -> {
-					if (t.contains(candidate)) {
-						t.addSequenceCache(candidate, initProb);
-						final Multiset<Sequence> covering = inferenceAlgorithm.infer(t);
-						t.setTempCachedCovering(covering);
-						return covering.entrySet();
+		// E-step (as if adding candidate to transactions that support it)
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final CoveringCounts committedCounts = transactions.getCoveringCounts();
+		final CoveringCounts delta = context.run(Phase.CANDIDATE_E_STEP,
+				() -> context.indices(Phase.CANDIDATE_E_STEP, supporting).mapToObj(tid -> {
+					final Transaction t = transactionList.get(tid);
+					final Multiset<Sequence> covering;
+					synchronized (t) { // candidates may be evaluated concurrently
+						t.addSequenceCache(candidate, initRow);
+						try {
+							covering = inferenceAlgorithm.infer(t);
+						} finally {
+							t.removeSequenceCache(candidate);
+						}
 					}
-					return t.getCachedCovering().entrySet();
-				}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
+					if (coverings != null)
+						coverings.put(tid, covering);
+					return new Tuple2<>(t.getCachedCovering(), covering);
+				}).collect(CoveringCounts.deltaCollector(committedCounts)));
+		final CoveringCounts coveringCounts = committedCounts.copy();
+		if (supporting.size() < scan.getSupport()) // extrapolate from sample
+			coveringCounts.merge(delta.scale(scan.getSupport() / (double) supporting.size()))
+					.clamp(transactions.size());
+		else
+			coveringCounts.merge(delta);
 
 		// M-step
-		final Table<Sequence, Integer, Double> newSequences = coveringWithCounts.entrySet().parallelStream().collect(
-				HashBasedTable::create,
-				(t, e) -> t.put(e.getKey().getElement(), e.getKey().getCount(), e.getValue() / noTransactions),
-				Table::putAll);
-		newSequences.rowKeySet().parallelStream().forEach(seq -> {
-			// Pad with zero counts for non-occurrences
-			final int maxOccur = Collections.max(newSequences.row(seq).keySet());
-			for (int occur = 1; occur <= maxOccur; occur++) {
-				if (!newSequences.contains(seq, occur))
-					newSequences.put(seq, occur, 0.);
-			} // Add probabilities for zero occurrences
-			double rowSum = 0;
-			for (final Double count : newSequences.row(seq).values())
-				rowSum += count;
-			newSequences.put(seq, 0, 1 - rowSum);
-		});
-
-		// Get average cost (removing candidate from supported transactions)
-		final double averageCost = transactions.getTransactionList().parallelStream().mapToDouble(t -> {
-			double cost;
-			if (t.contains(candidate))
-				cost = t.getTempCachedCost(newSequences);
-			else
-				cost = t.getCachedCost(newSequences);
-			t.removeSequenceCache(candidate);
-			return cost;
-		}).sum() / noTransactions;
+		final Table<Sequence, Integer, Double> newSequences = context.run(Phase.M_STEP,
+				() -> coveringCounts.toProbabilities(noTransactions));
+
+		// Get average cost (from the sufficient statistics)
+		final Map<Sequence, LogProbabilities> newRows = LogProbabilities.compile(newSequences);
+		final double averageCost = context.run(Phase.COST, () -> transactions.getCostStatistics()
+				.getAverageCost(coveringCounts, transactions.getCachedSequences(), newRows, candidate,
+						scan.getSupport()));
 
 		// Get candidate prob
 		final Map<Integer, Double> prob = newSequences.row(candidate);
@@ -135,56 +237,69 @@ public class EMStep {
 
 	/** Add accepted candidate itemset to cache */
 	static Table<Sequence, Integer, Double> addAcceptedCandidateCache(final TransactionDatabase transactions,
-			final Sequence candidate, final Map<Integer, Double> prob) {
+			final Sequence candidate, final Map<Integer, Double> prob, final CandidateScan scan,
+			final ExecutionContext context) {
 		final double noTransactions = transactions.size();
+		final LogProbabilities candidateRow = LogProbabilities.create(prob);
 
 		// Cached E-step (adding candidate to transactions that support it)
-		final Map<Multiset.Entry<Sequence>, Long> coveringWithCounts = transactions.getTransactionList()
-				.parallelStream().map(t -> {
-					if (t.contains(candidate)) {
-						t.addSequenceCache(candidate, prob);
-						final Multiset<Sequence> covering = t.getTempCachedCovering();
-						t.setCachedCovering(covering);
-						return covering.entrySet();
-					}
-					return t.getCachedCovering().entrySet();
-				}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
+		final CoveringCounts coveringCounts = transactions.getCoveringCounts();
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final LengthOrder supporting = scan.getOrder(transactionList);
+		final CoveringCounts delta = context.run(Phase.CANDIDATE_E_STEP,
+				() -> context.indices(Phase.CANDIDATE_E_STEP, supporting).mapToObj(tid -> {
+					final Transaction t = transactionList.get(tid);
+					t.addSequenceCache(candidate, candidateRow);
+					final Multiset<Sequence> oldCovering = t.getCachedCovering();
+					t.setCachedCovering(scan.getCovering(tid));
+					return new Tuple2<>(oldCovering, t.getCachedCovering());
+				}).collect(CoveringCounts.deltaCollector(coveringCounts)));
+		coveringCounts.merge(delta);
+		transactions.getCostStatistics().addSequence(candidate, scan.getSupport());
+		transactions.getChangeTracker().addSequence(candidate, scan.getTids());
 
 		// M-step
-		final Table<Sequence, Integer, Double> newSequences = coveringWithCounts.entrySet().parallelStream().collect(
-				HashBasedTable::create,
-				(t, e) -> t.put(e.getKey().getElement(), e.getKey().getCount(), e.getValue() / noTransactions),
-				Table::putAll);
-		newSequences.rowKeySet().parallelStream().forEach(seq -> {
-			// Pad with zero counts for non-occurrences
-			final int maxOccur = Collections.max(newSequences.row(seq).keySet());
-			for (int occur = 1; occur <= maxOccur; occur++) {
-				if (!newSequences.contains(seq, occur))
-					newSequences.put(seq, occur, 0.);
-			} // Add probabilities for zero occurrences
-			double rowSum = 0;
-			for (final Double count : newSequences.row(seq).values())
-				rowSum += count;
-			newSequences.put(seq, 0, 1 - rowSum);
-		});
+		final Table<Sequence, Integer, Double> newSequences = context.run(Phase.M_STEP,
+				() -> coveringCounts.toProbabilities(noTransactions));
 
 		// Update cached itemsets
-		transactions.getTransactionList().parallelStream().forEach(t -> t.updateCachedSequences(newSequences));
+		updateCachedSequences(transactions, newSequences, context);
 
 		return newSequences;
 	}
 
+	/** Update the sequences cached in the transactions */
+	static void updateCachedSequences(final TransactionDatabase transactions,
+			final Table<Sequence, Integer, Double> newSequences, final ExecutionContext context) {
+		updateCachedSequences(transactions, LogProbabilities.compile(newSequences), context);
+	}
+
+	/** Update the sequences cached in the transactions */
+	static void updateCachedSequences(final TransactionDatabase transactions,
+			final Map<Sequence, LogProbabilities> newRows, final ExecutionContext context) {
+		context.run(Phase.M_STEP, () -> context.stream(Phase.M_STEP, transactions)
+				.forEach(t -> t.updateCachedSequences(newRows)));
+		transactions.setCachedSequences(newRows);
+	}
+
 	/** Get the support of given sequences */
 	static Map<Sequence, Long> getSupportsOfSequences(final TransactionDatabase transactions,
 			final Set<Sequence> sequences) {
-		return transactions.getTransactionList().parallelStream().map(t -> {
-			final HashSet<Sequence> supportedSeqs = new HashSet<>();
-			for (final Sequence seq : sequences) {
-				if (t.contains(seq))
-					supportedSeqs.add(seq);
-			}
-			return supportedSeqs;
-		}).flatMap(Set::stream).collect(groupingBy(identity(), counting()));
+		return getSupportsOfSequences(transactions, sequences, ExecutionContext.commonPool());
+	}
+
+	/** Get the support of given sequences */
+	static Map<Sequence, Long> getSupportsOfSequences(final TransactionDatabase transactions,
+			final Set<Sequence> sequences, final ExecutionContext context) {
+		return context.run(Phase.SUPPORT,
+				() -> context.stream(Phase.SUPPORT, transactions).map(t -> {
+					final HashSet<Sequence> supportedSeqs = new HashSet<>();
+					for (final Sequence seq : sequences) {
+						if (t.contains(seq))
+							supportedSeqs.add(seq);
+					}
+					return supportedSeqs;
+				}).flatMap(Set::stream).collect(groupingBy(identity(), counting())));
 	}
 
 	private EMStep() {
@@ -0,0 +1,348 @@
+package sequencemining.main;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import sequencemining.transaction.LengthOrder;
+import sequencemining.transaction.Transaction;
+import sequencemining.transaction.TransactionDatabase;
+
+/**
+ * Execution context for the parallel phases of the EM algorithms. Every phase
+ * runs in a dedicated fork-join pool of the given size, parallel streams over
+ * the transactions are split into chunks of at least the given size and the
+ * parallelism achieved by each phase is recorded.
+ * <p>
+ * Transactions are streamed in order of decreasing length and each split
+ * halves the estimated work (rather than the no. of transactions) of a chunk,
+ * so that chunks of long transactions don't leave the other workers idle.
+ * <p>
+ * Each stream is planned by estimating its work from the lengths of its
+ * transactions and the time per unit of work measured in earlier calls of the
+ * phase: streams too small to amortize fork-join overhead run sequentially and
+ * the others stop splitting at chunks worth a minimum task time (batched) or
+ * run fully parallel when single transactions are already worth that time.
+ */
+public class ExecutionContext {
+
+	/** Parallel phases of the EM algorithms */
+	public enum Phase {
+		SUPPORT("Support counting", false), //
+		E_STEP("E-step", true), //
+		CANDIDATE_E_STEP("Candidate E-step", true), //
+		M_STEP("M-step", false), //
+		COST("Cost", false);
+
+		private final String name;
+
+		/** Does the work per transaction grow quadratically with its length? */
+		private final boolean quadratic;
+
+		private Phase(final String name, final boolean quadratic) {
+			this.name = name;
+			this.quadratic = quadratic;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/** Execution modes chosen by the planner */
+	public enum Mode {
+		SEQUENTIAL, PARALLEL, BATCHED
+	}
+
+	/** Streams estimated to take less time run sequentially */
+	private static final long SEQUENTIAL_NANOS = 200_000;
+
+	/** Min. estimated time of a chunk processed by a single task */
+	private static final long MIN_TASK_NANOS = 50_000;
+
+	private final ForkJoinPool pool;
+	private final boolean isCommonPool;
+	private final int minChunkSize;
+	private final boolean plan;
+	private final EnumMap<Phase, PhaseStats> stats = new EnumMap<>(Phase.class);
+
+	/**
+	 * Constructor
+	 *
+	 * @param noThreads
+	 *            size of the dedicated worker pool
+	 * @param minChunkSize
+	 *            min. no. of transactions processed by a single task
+	 */
+	public ExecutionContext(final int noThreads, final int minChunkSize) {
+		this(noThreads, minChunkSize, true);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param noThreads
+	 *            size of the dedicated worker pool
+	 * @param minChunkSize
+	 *            min. no. of transactions processed by a single task
+	 * @param plan
+	 *            plan execution of each stream by its estimated work (else
+	 *            always split down to the min. chunk size)
+	 */
+	public ExecutionContext(final int noThreads, final int minChunkSize, final boolean plan) {
+		this(new ForkJoinPool(noThreads), false, minChunkSize, plan);
+	}
+
+	private ExecutionContext(final ForkJoinPool pool, final boolean isCommonPool, final int minChunkSize,
+			final boolean plan) {
+		if (minChunkSize < 1)
+			throw new IllegalArgumentException("Min. chunk size must be positive.");
+		this.pool = pool;
+		this.isCommonPool = isCommonPool;
+		this.minChunkSize = minChunkSize;
+		this.plan = plan;
+		for (final Phase phase : Phase.values())
+			stats.put(phase, new PhaseStats());
+	}
+
+	/** Context that runs in the common fork-join pool */
+	public static ExecutionContext commonPool() {
+		return new ExecutionContext(ForkJoinPool.commonPool(), true, 1, false);
+	}
+
+	/** Run given phase in the worker pool */
+	public <T> T run(final Phase phase, final Supplier<T> task) {
+		final long startTime = System.nanoTime();
+		try {
+			if (ForkJoinTask.getPool() == pool) // already in pool
+				return task.get();
+			return pool.submit(task::get).join();
+		} finally {
+			stats.get(phase).addCall(System.nanoTime() - startTime);
+		}
+	}
+
+	/** Run given phase in the worker pool */
+	public void run(final Phase phase, final Runnable task) {
+		run(phase, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Apply given function to the given tasks concurrently in the worker pool
+	 *
+	 * @return the results in task order
+	 */
+	public <T, R> List<R> invokeAll(final List<T> tasks, final Function<? super T, ? extends R> function) {
+		final Supplier<List<R>> results = () -> tasks.parallelStream().map(function).collect(toList());
+		if (ForkJoinTask.getPool() == pool) // already in pool
+			return results.get();
+		return pool.submit(results::get).join();
+	}
+
+	/**
+	 * Parallel (unordered) stream over the given transactions for the given
+	 * phase (must be consumed from within {@link #run})
+	 */
+	public Stream<Transaction> stream(final Phase phase, final TransactionDatabase transactions) {
+		return stream(phase, transactions, transactions.getLengthOrder());
+	}
+
+	/**
+	 * Parallel (unordered) stream over the given ordered subset of the
+	 * transactions for the given phase (must be consumed from within
+	 * {@link #run})
+	 */
+	public Stream<Transaction> stream(final Phase phase, final TransactionDatabase transactions,
+			final LengthOrder order) {
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		return indices(phase, order).mapToObj(transactionList::get);
+	}
+
+	/**
+	 * Parallel (unordered) stream over the indices of the given ordered
+	 * transactions for the given phase (must be consumed from within
+	 * {@link #run})
+	 */
+	public IntStream indices(final Phase phase, final LengthOrder order) {
+		final PhaseStats phaseStats = stats.get(phase);
+		final long work = order.getWeight(0, order.size(), phase.quadratic);
+		final long minChunkWork = getMinChunkWork(phaseStats, work);
+		final Mode mode = minChunkWork >= work ? Mode.SEQUENTIAL
+				: minChunkWork > order.getWeight(0, Math.min(1, order.size()), phase.quadratic) ? Mode.BATCHED
+						: Mode.PARALLEL;
+		phaseStats.addPlan(mode);
+		return StreamSupport.intStream(new BalancedSpliterator(order, 0, order.size(), phase.quadratic, minChunkSize,
+				minChunkWork, phaseStats), mode != Mode.SEQUENTIAL);
+	}
+
+	/**
+	 * Min. work of a chunk for a stream of given work in given phase (at least
+	 * the total work to run sequentially)
+	 */
+	private long getMinChunkWork(final PhaseStats phaseStats, final long work) {
+		if (!plan)
+			return 0;
+		if (getParallelism() == 1)
+			return work;
+		final double nanosPerWork = phaseStats.getNanosPerWork();
+		if (Double.isNaN(nanosPerWork)) // not measured yet
+			return 0;
+		if (work * nanosPerWork < SEQUENTIAL_NANOS)
+			return work;
+		return (long) Math.ceil(MIN_TASK_NANOS / nanosPerWork);
+	}
+
+	/** Size of the worker pool */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/** Shut down the worker pool */
+	public void shutdown() {
+		if (!isCommonPool)
+			pool.shutdown();
+	}
+
+	/** Pretty printing of the per-phase parallelism */
+	public String statsToString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format(" Parallel phases (%d threads, min. chunk size %d, %s):%n", getParallelism(),
+				minChunkSize, plan ? "planned" : "unplanned"));
+		for (final Entry<Phase, PhaseStats> entry : stats.entrySet()) {
+			final PhaseStats phaseStats = entry.getValue();
+			if (phaseStats.calls.sum() == 0)
+				continue;
+			final double wallTime = phaseStats.wallTime.sum() / 1e9;
+			final double busyTime = phaseStats.busyTime.sum() / 1e9;
+			final double noCalls = phaseStats.calls.sum();
+			sb.append(String.format("  %-18s calls: %d, transactions/call: %.1f, chunks/call: %.1f,"
+					+ " time: %.2fs, busy: %.2fs, parallelism: %.2f%n", entry.getKey(), phaseStats.calls.sum(),
+					phaseStats.transactions.sum() / noCalls, phaseStats.chunks.sum() / noCalls, wallTime, busyTime,
+					wallTime > 0 ? busyTime / wallTime : 0));
+			sb.append(String.format("  %-18s streams: %d sequential, %d parallel, %d batched%n", "",
+					phaseStats.plans.get(Mode.SEQUENTIAL).sum(), phaseStats.plans.get(Mode.PARALLEL).sum(),
+					phaseStats.plans.get(Mode.BATCHED).sum()));
+		}
+		return sb.toString();
+	}
+
+	/** Timings for a phase */
+	private static class PhaseStats {
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder chunks = new LongAdder();
+		private final LongAdder transactions = new LongAdder();
+		private final LongAdder wallTime = new LongAdder();
+		private final LongAdder busyTime = new LongAdder();
+		private final LongAdder work = new LongAdder();
+		private final EnumMap<Mode, LongAdder> plans = new EnumMap<>(Mode.class);
+
+		private PhaseStats() {
+			for (final Mode mode : Mode.values())
+				plans.put(mode, new LongAdder());
+		}
+
+		private void addCall(final long time) {
+			calls.increment();
+			wallTime.add(time);
+		}
+
+		private void addChunk(final long time, final int noTransactions, final long chunkWork) {
+			chunks.increment();
+			transactions.add(noTransactions);
+			busyTime.add(time);
+			work.add(chunkWork);
+		}
+
+		private void addPlan(final Mode mode) {
+			plans.get(mode).increment();
+		}
+
+		/** Measured time per unit of work (NaN if nothing measured yet) */
+		private double getNanosPerWork() {
+			final long totalWork = work.sum();
+			return totalWork == 0 ? Double.NaN : busyTime.sum() / (double) totalWork;
+		}
+	}
+
+	/**
+	 * Spliterator over a range of the length order that splits into halves of
+	 * equal work, doesn't split below the min. chunk size (or work) and records
+	 * the time spent processing each chunk
+	 */
+	private static class BalancedSpliterator implements Spliterator.OfInt {
+		private final LengthOrder order;
+		private int from;
+		private final int to;
+		private final boolean quadratic;
+		private final int minChunkSize;
+		private final long minChunkWork;
+		private final PhaseStats stats;
+
+		private BalancedSpliterator(final LengthOrder order, final int from, final int to, final boolean quadratic,
+				final int minChunkSize, final long minChunkWork, final PhaseStats stats) {
+			this.order = order;
+			this.from = from;
+			this.to = to;
+			this.quadratic = quadratic;
+			this.minChunkSize = minChunkSize;
+			this.minChunkWork = minChunkWork;
+			this.stats = stats;
+		}
+
+		@Override
+		public boolean tryAdvance(final IntConsumer action) {
+			if (from >= to)
+				return false;
+			action.accept(order.get(from++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(final IntConsumer action) {
+			final long startTime = System.nanoTime();
+			final int noItems = to - from;
+			final long chunkWork = order.getWeight(from, to, quadratic);
+			for (; from < to; from++)
+				action.accept(order.get(from));
+			stats.addChunk(System.nanoTime() - startTime, noItems, chunkWork);
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+			if (to - from < 2 * minChunkSize || order.getWeight(from, to, quadratic) < 2 * minChunkWork)
+				return null;
+			final int mid = order.split(from, to, quadratic);
+			final BalancedSpliterator prefix = new BalancedSpliterator(order, from, mid, quadratic, minChunkSize,
+					minChunkWork, stats);
+			from = mid;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return to - from;
+		}
+
+		@Override
+		public int characteristics() {
+			return SIZED | SUBSIZED | NONNULL | DISTINCT;
+		}
+	}
+
+}
@@ -2,14 +2,15 @@ package sequencemining.main;
 
 import java.io.Serializable;
 import java.util.BitSet;
-import java.util.Map;
+import java.util.Map.Entry;
 
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
-import com.google.common.collect.Table;
 
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.LogProbabilities;
 import sequencemining.transaction.Transaction;
+import sequencemining.util.LogFactorial;
 
 /** Container class for Inference Algorithms */
 public class InferenceAlgorithms {
@@ -30,87 +31,94 @@ public class InferenceAlgorithms {
 
 		@Override
 		public Multiset<Sequence> infer(final Transaction transaction) {
-
 			final Multiset<Sequence> covering = HashMultiset.create();
 			int lenCovering = 0;
-			final int transactionSize = transaction.size();
-			final BitSet coveredItems = new BitSet(transactionSize);
-
-			final Table<Sequence, Integer, Double> cachedSequences = transaction.getCachedSequences();
-			while (coveredItems.cardinality() != transactionSize) {
-
-				double minCostPerItem = Double.POSITIVE_INFINITY;
-				Sequence bestSeq = null;
-				BitSet bestSeqCoveredItems = null;
-
-				for (final Sequence seq : cachedSequences.rowKeySet()) {
-
-					// How many additional items does sequence cover?
-					final BitSet seqCoveredItems = transaction.getCovered(seq, coveredItems);
-					// Ignore sequences which don't cover anything
-					if (seqCoveredItems.isEmpty())
-						continue;
-
-					// Get seq multiplicity in covering
-					final int occur = covering.count(seq);
-
-					// TODO triple check that this is right!!!
-					// Calculate f(CuS) - f(C)
-					Double prob1 = cachedSequences.get(seq, occur + 1);
-					if (prob1 == null)
-						prob1 = 0.; // Empty multiplicities have zero prob
-					else if (prob1 == 0. && isInnerProb(occur + 1, cachedSequences.row(seq)))
-						prob1 = Double.MIN_VALUE; // Smooth zero inner probs
-					double prob = cachedSequences.get(seq, occur);
-					if (prob == 0. && isInnerProb(occur, cachedSequences.row(seq)))
-						prob = Double.MIN_VALUE; // Smooth zero inner probs
-					final double cost = -Math.log(prob1) + Math.log(prob)
-							+ sumLogRange(lenCovering + 1, lenCovering + seq.size());
-					final double costPerItem = cost / seq.size();
-
-					if (costPerItem < minCostPerItem) {
-						minCostPerItem = costPerItem;
-						bestSeq = seq;
-						bestSeqCoveredItems = seqCoveredItems;
-					}
-
-				}
-
-				if (bestSeq != null) {
+			final BitSet coveredItems = new BitSet(transaction.size());
+			while (coveredItems.cardinality() != transaction.size()) {
+				final Choice choice = choose(transaction, covering, lenCovering, coveredItems);
+				if (choice != null) {
 					// final int firstItemCovered = bestSeqCoveredItems
 					// .nextSetBit(0);
 					// covering.put(bestSeq, firstItemCovered);
-					covering.add(bestSeq);
-					lenCovering += bestSeq.size();
-					coveredItems.or(bestSeqCoveredItems);
+					covering.add(choice.seq);
+					lenCovering += choice.seq.size();
+					coveredItems.or(choice.coveredItems);
 				} else { // Fill in incomplete coverings with singletons
-					int index = 0;
-					while (coveredItems.cardinality() != transactionSize) {
-						index = coveredItems.nextClearBit(index);
-						final Sequence seq = new Sequence(transaction.get(index));
-						covering.add(seq);
-						coveredItems.set(index);
-					}
+					fillCovering(transaction, covering, coveredItems);
 					return covering;
 				}
-
 			}
 			return covering;
 		}
 
-		private boolean isInnerProb(final int probIndex, final Map<Integer, Double> probVec) {
-			for (int i = probIndex + 1; i < probVec.size(); i++) {
-				if (probVec.get(i) != 0.)
-					return true;
+		/**
+		 * Find the sequence with minimum cost per item for one round of the
+		 * greedy algorithm (the first in cache order on ties)
+		 *
+		 * @return the best choice or null if no sequence covers anything
+		 */
+		private Choice choose(final Transaction transaction, final Multiset<Sequence> covering,
+				final int lenCovering, final BitSet coveredItems) {
+			Choice best = null;
+			for (final Entry<Sequence, LogProbabilities> entry : transaction.getCachedSequences().entrySet())
+				best = choose(transaction, covering, lenCovering, coveredItems, entry.getKey(), entry.getValue(),
+						best);
+			return best;
+		}
+
+		/**
+		 * Choose given sequence over the best choice so far if it is cheaper
+		 * per item and covers anything
+		 */
+		private Choice choose(final Transaction transaction, final Multiset<Sequence> covering,
+				final int lenCovering, final BitSet coveredItems, final Sequence seq, final LogProbabilities probs,
+				final Choice best) {
+
+			// Get seq multiplicity in covering
+			final int occur = covering.count(seq);
+
+			// TODO triple check that this is right!!!
+			// Calculate f(CuS) - f(C) (smoothing zero inner probs)
+			final double cost = probs.getSmoothedCost(occur + 1) - probs.getSmoothedCost(occur)
+					+ LogFactorial.sumLogRange(lenCovering + 1, lenCovering + seq.size());
+			final double costPerItem = cost / seq.size();
+			// Ignore sequences which can't improve on the best so far
+			final double minCostPerItem = best == null ? Double.POSITIVE_INFINITY : best.costPerItem;
+			if (!(costPerItem < minCostPerItem))
+				return best;
+
+			// How many additional items does sequence cover?
+			final BitSet seqCoveredItems = transaction.getCovered(seq, coveredItems);
+			// Ignore sequences which don't cover anything
+			if (seqCoveredItems.isEmpty())
+				return best;
+
+			return new Choice(seq, costPerItem, seqCoveredItems);
+		}
+
+		/** Fill in incomplete covering with singletons */
+		private void fillCovering(final Transaction transaction, final Multiset<Sequence> covering,
+				final BitSet coveredItems) {
+			int index = 0;
+			while (coveredItems.cardinality() != transaction.size()) {
+				index = coveredItems.nextClearBit(index);
+				final Sequence seq = new Sequence(transaction.get(index));
+				covering.add(seq);
+				coveredItems.set(index);
 			}
-			return false;
 		}
 
-		private double sumLogRange(final int a, final int b) {
-			double sum = 0;
-			for (int i = a; i <= b; i++)
-				sum += Math.log(i);
-			return sum;
+		/** Sequence chosen in a round of the greedy algorithm */
+		private static class Choice {
+			private final Sequence seq;
+			private final double costPerItem;
+			private final BitSet coveredItems;
+
+			private Choice(final Sequence seq, final double costPerItem, final BitSet coveredItems) {
+				this.seq = seq;
+				this.costPerItem = costPerItem;
+				this.coveredItems = coveredItems;
+			}
 		}
 
 	}
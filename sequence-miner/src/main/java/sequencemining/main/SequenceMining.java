@@ -55,6 +55,60 @@ public class SequenceMining extends SequenceMiningCore {
 		@Parameter(names = { "-r", "--runtime" }, description = "Max Runtime (min)")
 		long maxRunTime = 72 * 60; // 12hrs
 
+		@Parameter(names = { "--threads" }, description = "No. worker threads")
+		int noThreads = Runtime.getRuntime().availableProcessors();
+
+		@Parameter(names = { "--chunk" }, description = "Min. transactions per parallel task")
+		int minChunkSize = 1;
+
+		@Parameter(names = { "--speculate" }, description = "No. candidates evaluated concurrently")
+		int speculation = 1;
+
+		@Parameter(names = { "--accept" }, description = "Max. candidates accepted per structural step")
+		int maxAccepted = 1;
+
+		@Parameter(names = { "--overlap" }, description = "Max. fraction of supporting transactions shared in a step")
+		double maxOverlap = 0.;
+
+		@Parameter(names = { "--screen" }, description = "Supporting transactions sampled to screen candidates")
+		int screenSize = 0;
+
+		@Parameter(names = { "--screen-margin" }, description = "Max. cost increase estimated for screened candidates")
+		double screenMargin = 0.1;
+
+		@Parameter(names = { "--frontier" }, description = "Keep candidate queue across structural steps", arity = 1)
+		boolean persistCandidates = true;
+
+		@Parameter(names = { "--store-memory" }, description = "Memory budget (MB) of the seen candidate stores")
+		int storeMemory = 0;
+
+		@Parameter(names = { "--lazy-supports" }, description = "Count candidate supports lazily", arity = 1)
+		boolean lazySupports = true;
+
+		@Parameter(names = { "--cooccurrence" }, description = "Skip joins of sequences sharing no transaction", arity = 1)
+		boolean cooccurrenceFilter = true;
+
+		@Parameter(names = { "--approx-supports" }, description = "Rank candidates by support estimates (sample size)")
+		int approxSupports = 0;
+
+		@Parameter(names = { "--predict-gain" }, description = "Order candidates by predicted gain (window size)")
+		int gainWindow = 0;
+
+		@Parameter(names = { "--plan" }, description = "Plan sequential/parallel execution by work", arity = 1)
+		boolean planExecution = true;
+
+		@Parameter(names = { "-a", "--accelerate" }, description = "SQUAREM accelerated parameter EM")
+		boolean accelerateEM = false;
+
+		@Parameter(names = { "--change-tol" }, description = "Min. probability change to re-infer a transaction")
+		double changeTol = 0.;
+
+		@Parameter(names = { "--batch" }, description = "Mini-batch size (0 to learn from all transactions)")
+		int batchSize = 0;
+
+		@Parameter(names = { "--confirm" }, description = "Confirm mini-batch model on all transactions every n steps")
+		int confirmEvery = 10;
+
 		@Parameter(names = { "-t", "--timestamp" }, description = "Timestamp Logfile", arity = 1)
 		boolean timestampLog = true;
 
@@ -80,6 +134,24 @@ public class SequenceMining extends SequenceMiningCore {
 			// Set loglevel, runtime, timestamp and log file
 			LOG_LEVEL = params.logLevel;
 			MAX_RUNTIME = params.maxRunTime * 60 * 1_000;
+			NO_THREADS = params.noThreads;
+			MIN_CHUNK_SIZE = params.minChunkSize;
+			PLAN_EXECUTION = params.planExecution;
+			SPECULATION = Math.max(params.speculation, 1);
+			MAX_ACCEPTED = Math.max(params.maxAccepted, 1);
+			MAX_OVERLAP = params.maxOverlap;
+			SCREEN_SIZE = params.screenSize;
+			SCREEN_MARGIN = params.screenMargin;
+			PERSIST_CANDIDATES = params.persistCandidates;
+			STORE_MEMORY = params.storeMemory;
+			LAZY_SUPPORTS = params.lazySupports;
+			COOCCURRENCE_FILTER = params.cooccurrenceFilter;
+			APPROX_SUPPORTS = params.approxSupports;
+			GAIN_WINDOW = params.gainWindow;
+			ACCELERATE_EM = params.accelerateEM;
+			CHANGE_TOL = params.changeTol;
+			BATCH_SIZE = params.batchSize;
+			CONFIRM_EVERY = params.confirmEvery;
 			File logFile = null;
 			if (!params.verbose)
 				logFile = Logging.getLogFileName("ISM", params.timestampLog, LOG_DIR, params.dataset);
@@ -112,7 +184,17 @@ public class SequenceMining extends SequenceMiningCore {
 		logger.info("========== INTERESTING SEQUENCE MINING ============");
 		logger.info("\n Time: " + new SimpleDateFormat("dd.MM.yyyy-HH:mm:ss").format(new Date()));
 		logger.info("\n Inputs: -f " + inputFile + " -s " + maxStructureSteps + " -i " + maxEMIterations + " -r "
-				+ MAX_RUNTIME / 60_000);
+				+ MAX_RUNTIME / 60_000 + " --threads " + NO_THREADS + " --chunk " + MIN_CHUNK_SIZE + " --plan "
+				+ PLAN_EXECUTION + " --frontier " + PERSIST_CANDIDATES
+				+ " --lazy-supports " + LAZY_SUPPORTS + " --cooccurrence " + COOCCURRENCE_FILTER + " --speculate "
+				+ SPECULATION
+				+ (ACCELERATE_EM ? " -a" : "") + " --change-tol " + CHANGE_TOL
+				+ (BATCH_SIZE > 0 ? " --batch " + BATCH_SIZE + " --confirm " + CONFIRM_EVERY : "")
+				+ (MAX_ACCEPTED > 1 ? " --accept " + MAX_ACCEPTED + " --overlap " + MAX_OVERLAP : "")
+				+ (SCREEN_SIZE > 0 ? " --screen " + SCREEN_SIZE + " --screen-margin " + SCREEN_MARGIN : "")
+				+ (STORE_MEMORY > 0 ? " --store-memory " + STORE_MEMORY : "")
+				+ (APPROX_SUPPORTS > 0 ? " --approx-supports " + APPROX_SUPPORTS : "")
+				+ (GAIN_WINDOW > 0 ? " --predict-gain " + GAIN_WINDOW : ""));
 
 		// Read in transaction database
 		final TransactionList transactions = readTransactions(inputFile);
@@ -120,10 +202,13 @@ public class SequenceMining extends SequenceMiningCore {
 		// Determine initial probabilities
 		final Table<Sequence, Integer, Double> initProbs = scanDatabaseToDetermineInitialProbabilities(inputFile);
 
+		// Set up dedicated worker pool
+		final ExecutionContext context = new ExecutionContext(NO_THREADS, MIN_CHUNK_SIZE, PLAN_EXECUTION);
+
 		// Run inference to find interesting sequences
 		logger.fine("\n============= SEQUENCE INFERENCE =============\n");
 		final Table<Sequence, Integer, Double> sequences = structuralEM(transactions, initProbs, inferenceAlgorithm,
-				maxStructureSteps, maxEMIterations);
+				maxStructureSteps, maxEMIterations, context);
 		if (LOG_LEVEL.equals(Level.FINEST))
 			logger.finest(
 					"\n======= Transaction Database =======\n" + Files.toString(inputFile, Charsets.UTF_8) + "\n");
@@ -134,7 +219,8 @@ public class SequenceMining extends SequenceMiningCore {
 			sequenceMap.put(seq, 1 - sequences.get(seq, 0));
 
 		// Sort sequences by interestingness
-		final HashMap<Sequence, Double> intMap = calculateInterestingness(sequenceMap, transactions);
+		final HashMap<Sequence, Double> intMap = calculateInterestingness(sequenceMap, transactions, context);
+		context.shutdown();
 		final Map<Sequence, Double> sortedSequences = sortSequences(sequenceMap, intMap);
 
 		logger.info("\n============= INTERESTING SEQUENCES =============\n");
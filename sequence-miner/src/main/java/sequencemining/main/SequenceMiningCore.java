@@ -2,14 +2,21 @@ package sequencemining.main;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,12 +30,15 @@ import java.util.concurrent.ExecutionException;
 import org.apache.commons.io.FileUtils;
 
 import com.google.common.base.Functions;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Table;
 
 import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.CandidateGain;
+import sequencemining.transaction.CandidateScan;
 import sequencemining.transaction.TransactionDatabase;
 import sequencemining.util.Tuple2;
 
@@ -37,6 +47,8 @@ public abstract class SequenceMiningCore {
 	/** Main fixed settings */
 	private static final int OPTIMIZE_PARAMS_EVERY = 1;
 	private static final double OPTIMIZE_TOL = 1e-5;
+	private static final int MAX_EM_STATES = 3;
+	private static final int AUDIT_EVERY = 10;
 
 	protected static final Logger logger = Logger.getLogger(SequenceMiningCore.class.getName());
 	public static final File LOG_DIR = new File("/tmp/");
@@ -44,22 +56,83 @@ public abstract class SequenceMiningCore {
 	/** Variable settings */
 	protected static Level LOG_LEVEL = Level.FINE;
 	protected static long MAX_RUNTIME = 24 * 60 * 60 * 1_000; // 24hrs
+	protected static int NO_THREADS = Runtime.getRuntime().availableProcessors();
+	protected static int MIN_CHUNK_SIZE = 1;
+	protected static boolean PLAN_EXECUTION = true;
+	protected static boolean ACCELERATE_EM = false;
+	protected static double CHANGE_TOL = 0.;
+	protected static int BATCH_SIZE = 0;
+	protected static int CONFIRM_EVERY = 10;
+	protected static int SPECULATION = 1;
+	protected static int MAX_ACCEPTED = 1;
+	protected static double MAX_OVERLAP = 0.;
+	protected static int SCREEN_SIZE = 0;
+	protected static double SCREEN_MARGIN = 0.1;
+	protected static boolean PERSIST_CANDIDATES = true;
+	protected static int STORE_MEMORY = 0;
+	protected static boolean LAZY_SUPPORTS = true;
+	protected static boolean COOCCURRENCE_FILTER = true;
+	protected static int APPROX_SUPPORTS = 0;
+	protected static int GAIN_WINDOW = 0;
+
+	/** Min. no. of pairs of sequences joined by a single task */
+	private static final int JOIN_BLOCK_SIZE = 4096;
+
+	/** Max. no. of candidates whose supports are counted lazily in one pass */
+	private static final int SUPPORT_BATCH = 64;
+
+	/** E-step passes and SQUAREM extrapolations attempted/accepted */
+	private static int noEMPasses = 0;
+	private static int noExtrapolations = 0;
+	private static int noAcceptedExtrapolations = 0;
+	private static int noEvaluations = 0;
+	private static int noSpeculativeEvaluations = 0;
+	private static int noScreened = 0;
+	private static int noWrongPasses = 0;
+	private static int noScreenedOut = 0;
+	private static int noAudited = 0;
+	private static int noWrongRejections = 0;
+	private static int noSupportBounded = 0;
+	private static int noSupportCounted = 0;
+	private static int noSupportEstimated = 0;
+	private static int noTooLong = 0;
+	private static int noOrderedAcceptances = 0;
+	private static long noOrderedEvaluations = 0;
+	/** Eval calls support order needs to reach the same accepted sequences */
+	private static long noSupportOrderEvaluations = 0;
 
 	/**
 	 * Learn itemsets model using structural EM
 	 */
 	protected static Table<Sequence, Integer, Double> structuralEM(final TransactionDatabase transactions,
 			final Table<Sequence, Integer, Double> sequences, final InferenceAlgorithm inferenceAlgorithm,
-			final int maxStructureSteps, final int maxEMIterations) {
+			final int maxStructureSteps, final int maxEMIterations, final ExecutionContext context) {
 
 		// Start timer
 		final long startTime = System.currentTimeMillis();
+		noEMPasses = 0;
+		noExtrapolations = 0;
+		noAcceptedExtrapolations = 0;
+		noEvaluations = 0;
+		noSpeculativeEvaluations = 0;
+		noScreened = 0;
+		noWrongPasses = 0;
+		noScreenedOut = 0;
+		noAudited = 0;
+		noWrongRejections = 0;
+		noSupportBounded = 0;
+		noSupportCounted = 0;
+		noSupportEstimated = 0;
+		noTooLong = 0;
+		noOrderedAcceptances = 0;
+		noOrderedEvaluations = 0;
+		noSupportOrderEvaluations = 0;
 
 		// Initialize sequence cache
 		// if (transactions instanceof TransactionRDD) {
 		// SparkEMStep.initializeCachedItemsets(transactions, singletons);
 		// } else {
-		EMStep.initializeCachedSequences(transactions, sequences);
+		EMStep.initializeCachedSequences(transactions, sequences, context);
 		// }
 
 		// Intialize supports with singletons and their actual supports
@@ -71,8 +144,9 @@ public abstract class SequenceMiningCore {
 		}
 		logger.fine(" Initial sequences: " + probsToString(sequences) + "\n");
 
-		// Initialize list of rejected seqs
-		final Set<Sequence> rejected_seqs = new HashSet<>();
+		// Initialize list of rejected seqs (each store taking half the memory
+		// budget, if any)
+		final CandidateStore rejected_seqs = new CandidateStore((long) STORE_MEMORY << 19);
 
 		// Define decreasing support ordering for sequences
 		final Ordering<Sequence> supportOrdering = new Ordering<Sequence>() {
@@ -80,19 +154,27 @@ public abstract class SequenceMiningCore {
 			public int compare(final Sequence seq1, final Sequence seq2) {
 				return supports.get(seq2) - supports.get(seq1);
 			}
-		}.compound(Ordering.usingToString());
+		}.compound(Sequence.ITEM_ORDER);
 
-		// Define decreasing support ordering for candidate sequences
-		final HashMap<Sequence, Integer> candidateSupports = new HashMap<>();
-		final Ordering<Sequence> candidateSupportOrdering = new Ordering<Sequence>() {
-			@Override
-			public int compare(final Sequence seq1, final Sequence seq2) {
-				return candidateSupports.get(seq2) - candidateSupports.get(seq1);
-			}
-		}.compound(Ordering.usingToString());
+		// Initialize candidate supports (stored as negated support bounds until
+		// counted, zero if unsupported)
+		final CandidateStore candidateSupports = new CandidateStore((long) STORE_MEMORY << 19);
 
 		// Initialize average cost per transaction for singletons
-		expectationMaximizationStep(sequences, transactions, inferenceAlgorithm);
+		expectationMaximizationStep(sequences, transactions, inferenceAlgorithm, context);
+
+		// Mini-batch structural EM (if the database is larger than a batch)
+		final StochasticEM stochasticEM = BATCH_SIZE > 0 && BATCH_SIZE < noTransactions
+				? new StochasticEM(transactions, sequences, inferenceAlgorithm, BATCH_SIZE, CONFIRM_EVERY, context)
+				: null;
+
+		// Transactions containing each sequence (to skip unsupported joins)
+		final CooccurrenceIndex cooccurrences = COOCCURRENCE_FILTER ? new CooccurrenceIndex() : null;
+
+		// Candidate queue kept across structural steps (candidate supports
+		// must be counted on the full database)
+		final CandidateFrontier frontier = PERSIST_CANDIDATES && stochasticEM == null
+				? new CandidateFrontier(candidateSupports, supports, cooccurrences, maxStructureSteps) : null;
 
 		ExecutorService service = Executors.newSingleThreadExecutor();
 
@@ -104,19 +186,31 @@ public abstract class SequenceMiningCore {
 		            boolean breakLoop = false;
 					for (int iteration = 1; iteration <= maxEMIterations; iteration++) {
 
-						// Learn structure
+						// Sample mini-batch to learn from (if any)
+						final TransactionDatabase data = stochasticEM == null ? transactions
+								: stochasticEM.nextBatch(sequences);
+
+						// Learn structure (counting candidate supports on a
+						// mini-batch in a store of its own, as they are scaled
+						// estimates that don't hold for other transactions)
 						logger.finer("\n----- Itemset Combination at Step " + iteration + "\n");
-						combineSequencesStep(sequences, transactions, rejected_seqs, inferenceAlgorithm, maxStructureSteps,
-								supportOrdering, supports, candidateSupportOrdering, candidateSupports);
-						if (transactions.getIterationLimitExceeded())
+						final CandidateStore dataSupports = stochasticEM == null ? candidateSupports
+								: new CandidateStore((long) STORE_MEMORY << 19);
+						combineSequencesStep(sequences, data, rejected_seqs, inferenceAlgorithm, maxStructureSteps,
+								supportOrdering, supports, dataSupports, cooccurrences, frontier, context);
+						if (dataSupports != candidateSupports)
+							dataSupports.close();
+						if (data.getIterationLimitExceeded())
 							breakLoop = true;
-						logger.finer(String.format(" Average cost: %.2f%n", transactions.getAverageCost()));
+						logger.finer(String.format(" Average cost: %.2f%n", data.getAverageCost()));
 
 						// Optimize parameters of new structure
 						if (iteration % OPTIMIZE_PARAMS_EVERY == 0 || iteration == maxEMIterations || breakLoop == true) {
 							logger.fine("\n***** Parameter Optimization at Step " + iteration + "\n");
-							expectationMaximizationStep(sequences, transactions, inferenceAlgorithm);
+							expectationMaximizationStep(sequences, data, inferenceAlgorithm, context);
 						}
+						if (stochasticEM != null) // rolled back seqs can be re-evaluated
+							rejected_seqs.removeAll(stochasticEM.update(sequences));
 
 						// Break loop if requested
 						if (breakLoop)
@@ -140,6 +234,10 @@ public abstract class SequenceMiningCore {
 						if (iteration == maxEMIterations)
 							logger.warning("\nEM iteration limit exceeded.\n");
 					}
+
+					// Confirm final mini-batch model on the full database
+					if (stochasticEM != null)
+						stochasticEM.confirm(sequences);
 		        }
 		    };
 
@@ -161,6 +259,38 @@ public abstract class SequenceMiningCore {
 		}
 
 		logger.info("\nElapsed time: " + (System.currentTimeMillis() - startTime) / (60. * 1000.) + " minutes.\n");
+		logger.info(context.statsToString());
+		if (stochasticEM != null)
+			logger.info(stochasticEM.statsToString());
+		if (frontier != null)
+			logger.info(frontier.statsToString());
+		if (cooccurrences != null)
+			logger.info(cooccurrences.statsToString());
+		if (LAZY_SUPPORTS)
+			logger.info(String.format(" Support counting: %d candidates queued by support bound (%d ranked by"
+					+ " estimate), %d counted, %d too long for any transaction%n", noSupportBounded,
+					noSupportEstimated, noSupportCounted, noTooLong));
+		if (STORE_MEMORY > 0)
+			logger.info(String.format(" Candidate store: rejected %s; supports %s%n", rejected_seqs.statsToString(),
+					candidateSupports.statsToString()));
+		rejected_seqs.close();
+		candidateSupports.close();
+		logger.info(String.format(" Parameter EM: %d E-step passes%s%n", noEMPasses,
+				ACCELERATE_EM ? String.format(" (SQUAREM extrapolations: %d accepted out of %d)",
+						noAcceptedExtrapolations, noExtrapolations) : ""));
+		if (SPECULATION > 1)
+			logger.info(String.format(" Speculative evaluation: %d candidate evaluations, %d discarded%n",
+					noEvaluations, noSpeculativeEvaluations));
+		if (SCREEN_SIZE > 0)
+			logger.info(String.format(" Candidate screening: %d screened, %d passed (%d then rejected),"
+					+ " %d screened out (%d audited, %d wrongly)%n", noScreened, noScreened - noScreenedOut,
+					noWrongPasses, noScreenedOut, noAudited, noWrongRejections));
+		if (noOrderedAcceptances > 0)
+			logger.info(String.format(" Candidate ordering (%s): %.1f eval calls per accepted sequence"
+					+ " vs %.1f in support order%n",
+					GAIN_WINDOW > 0 ? "by predicted gain in windows of " + GAIN_WINDOW : "by support",
+					noOrderedEvaluations / (double) noOrderedAcceptances,
+					noSupportOrderEvaluations / (double) noOrderedAcceptances));
 
 		return sequences;
 	}
@@ -172,14 +302,27 @@ public abstract class SequenceMiningCore {
 	 *         <p>
 	 *         NB. zero probability sequences are dropped
 	 */
-	private static void expectationMaximizationStep(final Table<Sequence, Integer, Double> sequences,
-			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm) {
+	static void expectationMaximizationStep(final Table<Sequence, Integer, Double> sequences,
+			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm,
+			final ExecutionContext context) {
 
 		logger.fine(" Structure Optimal Sequences: " + probsToString(sequences) + "\n");
 
 		Table<Sequence, Integer, Double> prevSequences = sequences;
 
-		double norm = 1;
+		// Accelerated EM (finished off by plain EM if it stops improving)
+		boolean converged = false;
+		if (ACCELERATE_EM) {
+			final Tuple2<Table<Sequence, Integer, Double>, Boolean> squarem = squaremSteps(prevSequences, transactions,
+					inferenceAlgorithm, context);
+			prevSequences = squarem._1;
+			converged = squarem._2;
+		}
+
+		// Snapshots of the last few EM states (oldest first)
+		final Deque<EMSnapshot> states = new ArrayDeque<>();
+
+		double norm = converged ? 0 : 1;
 		double prevNormDiff = Double.MAX_VALUE;
 		double normDiff = Double.MAX_VALUE;
 		while (norm > OPTIMIZE_TOL) {
@@ -188,44 +331,41 @@ public abstract class SequenceMiningCore {
 			final Table<Sequence, Integer, Double> newSequences;
 
 			// Parallel E-step and M-step combined
-			newSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+			newSequences = hardEMStep(transactions, inferenceAlgorithm, context);
+			states.addLast(new EMSnapshot(transactions, newSequences,
+					EMStep.calculateAverageCost(transactions, context)));
+			if (states.size() > MAX_EM_STATES)
+				states.removeFirst();
 
 			// If set has stabilised calculate norm(P_prev - P_new)
 			if (prevSequences.rowKeySet().equals(newSequences.rowKeySet())) {
-				double newNorm = 0;
-				for (final Sequence seq : prevSequences.rowKeySet()) {
-					for (final int occur : prevSequences.row(seq).keySet()) {
-						Double newProb = newSequences.get(seq, occur);
-						if (newProb == null)
-							newProb = 0.; // Empty multiplicities have zero prob
-						newNorm += Math.pow(prevSequences.get(seq, occur) - newProb, 2);
-					}
-				}
-				newNorm = Math.sqrt(newNorm);
+				final double newNorm = parameterNorm(prevSequences, newSequences);
 				final double newNormDiff = Math.abs(newNorm - norm);
 
-				// Avoid infinite oscillating loops
+				// Avoid infinite oscillating loops (restoring best cost state)
 				if (Math.abs(newNormDiff - normDiff) == 0.) {
 					logger.warning(" EM oscillating between two states, taking best cost solution...\n");
-					final double newCost = EMStep.calculateAverageCost(transactions);
-					prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
-					final double prevCost = EMStep.calculateAverageCost(transactions);
-					if (newCost < prevCost) // Back to newSequences in the cache
-						prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+					final EMSnapshot newState = states.removeLast();
+					final double newCost = newState.getAverageCost();
+					final double prevCost = getRestorableCost(states.peekLast(), transactions);
+					prevSequences = newSequences;
+					if (!(newCost < prevCost)) // Back to previous state
+						prevSequences = restore(states.peekLast(), transactions, context);
 					break;
 				} else if (Math.abs(Math.abs(newNormDiff - normDiff - prevNormDiff)) == 0.) {
 					logger.warning(" EM oscillating between three states, taking best cost solution...\n");
-					final double newCost = EMStep.calculateAverageCost(transactions);
-					EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
-					final double prevCost1 = EMStep.calculateAverageCost(transactions);
-					EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
-					final double prevCost2 = EMStep.calculateAverageCost(transactions);
-					if (newCost < prevCost1 && newCost < prevCost2) // newSequences
-						prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
-					else if (prevCost1 < prevCost2 && prevCost1 < newCost) { // prevSequences
-						EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
-						prevSequences = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
-					}
+					final EMSnapshot newState = states.removeLast();
+					final EMSnapshot prevState2 = states.pollLast();
+					final EMSnapshot prevState1 = states.pollLast();
+					final double newCost = newState.getAverageCost();
+					final double prevCost1 = getRestorableCost(prevState1, transactions);
+					final double prevCost2 = getRestorableCost(prevState2, transactions);
+					prevSequences = newSequences; // already in the cache
+					final int best = getOscillationState(newCost, prevCost1, prevCost2);
+					if (best == 1)
+						prevSequences = restore(prevState1, transactions, context);
+					else if (best == 2 && prevCost2 != Double.POSITIVE_INFINITY)
+						prevSequences = restore(prevState2, transactions, context);
 					break;
 				}
 				norm = newNorm;
@@ -240,7 +380,7 @@ public abstract class SequenceMiningCore {
 		}
 
 		// Calculate average cost of last covering
-		transactions.setAverageCost(EMStep.calculateAverageCost(transactions));
+		transactions.setAverageCost(EMStep.calculateAverageCost(transactions, context));
 
 		sequences.clear();
 		sequences.putAll(prevSequences);
@@ -248,6 +388,179 @@ public abstract class SequenceMiningCore {
 		logger.fine(String.format(" Average cost: %.2f%n", transactions.getAverageCost()));
 	}
 
+	/** Hard EM step (counting the E-step passes) */
+	private static Table<Sequence, Integer, Double> hardEMStep(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final ExecutionContext context) {
+		noEMPasses++;
+		return EMStep.hardEMStep(transactions, inferenceAlgorithm, CHANGE_TOL, context);
+	}
+
+	/**
+	 * State to settle on when EM oscillates between three states: the new
+	 * state (0) or the first (1) or second (2) state after it if strictly the
+	 * cheapest, else the second state (i.e. the one EM stopped in originally)
+	 */
+	static int getOscillationState(final double newCost, final double prevCost1, final double prevCost2) {
+		if (newCost < prevCost1 && newCost < prevCost2)
+			return 0;
+		if (prevCost1 < prevCost2 && prevCost1 < newCost)
+			return 1;
+		return 2;
+	}
+
+	/**
+	 * Cost of given EM state (infinite if it is missing or can no longer be
+	 * restored)
+	 */
+	private static double getRestorableCost(final EMSnapshot state, final TransactionDatabase transactions) {
+		if (state == null || !state.isRestorable(transactions))
+			return Double.POSITIVE_INFINITY;
+		return state.getAverageCost();
+	}
+
+	/** Restore given EM state and return its sequences */
+	private static Table<Sequence, Integer, Double> restore(final EMSnapshot state,
+			final TransactionDatabase transactions, final ExecutionContext context) {
+		state.restore(transactions, context);
+		return state.getSequences();
+	}
+
+	/**
+	 * SQUAREM accelerated hard EM: two plain EM steps are extrapolated along
+	 * the squared step length and followed by a stabilizing EM step, falling
+	 * back to the second plain step if this increases the cost.
+	 *
+	 * @return the parameters reached (also cached in the transactions) and
+	 *         whether they have converged (otherwise the cost stopped
+	 *         decreasing and plain EM should take over)
+	 */
+	private static Tuple2<Table<Sequence, Integer, Double>, Boolean> squaremSteps(
+			final Table<Sequence, Integer, Double> sequences, final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final ExecutionContext context) {
+
+		Table<Sequence, Integer, Double> seqs0 = sequences;
+		double prevCost = Double.POSITIVE_INFINITY;
+		while (true) {
+
+			// Two plain EM steps
+			final Table<Sequence, Integer, Double> seqs1 = hardEMStep(transactions, inferenceAlgorithm, context);
+			if (parameterNorm(seqs0, seqs1) <= OPTIMIZE_TOL)
+				return new Tuple2<>(seqs1, true);
+			final Table<Sequence, Integer, Double> seqs2 = hardEMStep(transactions, inferenceAlgorithm, context);
+			if (parameterNorm(seqs1, seqs2) <= OPTIMIZE_TOL)
+				return new Tuple2<>(seqs2, true);
+			final double cost2 = EMStep.calculateAverageCost(transactions, context);
+
+			// Extrapolate and stabilize (if sets are stable)
+			Table<Sequence, Integer, Double> newSequences = seqs2;
+			double newCost = cost2;
+			final Table<Sequence, Integer, Double> extrapolated = extrapolate(seqs0, seqs1, seqs2);
+			if (extrapolated != null) {
+				noExtrapolations++;
+				EMStep.updateCachedSequences(transactions, extrapolated, context);
+				final Table<Sequence, Integer, Double> seqs3 = hardEMStep(transactions, inferenceAlgorithm, context);
+				final double cost3 = EMStep.calculateAverageCost(transactions, context);
+				if (cost3 <= cost2 && seqs3.rowKeySet().equals(seqs2.rowKeySet())) {
+					noAcceptedExtrapolations++;
+					newSequences = seqs3;
+					newCost = cost3;
+				} else { // Back to the second plain step
+					EMStep.updateCachedSequences(transactions, seqs2, context);
+				}
+			}
+
+			if (newCost >= prevCost)
+				return new Tuple2<>(newSequences, false);
+			prevCost = newCost;
+			seqs0 = newSequences;
+		}
+	}
+
+	/**
+	 * SQUAREM extrapolation seqs0 - 2 alpha r + alpha^2 v for r = seqs1 - seqs0
+	 * and v = seqs2 - 2 seqs1 + seqs0 with step length alpha = -|r|/|v|,
+	 * projected back onto probabilities
+	 *
+	 * @return extrapolated parameters or null if the sets are not stable or
+	 *         there is nothing to extrapolate
+	 */
+	private static Table<Sequence, Integer, Double> extrapolate(final Table<Sequence, Integer, Double> seqs0,
+			final Table<Sequence, Integer, Double> seqs1, final Table<Sequence, Integer, Double> seqs2) {
+		if (!seqs0.rowKeySet().equals(seqs1.rowKeySet()) || !seqs1.rowKeySet().equals(seqs2.rowKeySet()))
+			return null;
+
+		// Step length
+		double normR = 0;
+		double normV = 0;
+		for (final Sequence seq : seqs2.rowKeySet()) {
+			for (final int occur : occurrences(seq, seqs0, seqs1, seqs2)) {
+				final double r = getProb(seqs1, seq, occur) - getProb(seqs0, seq, occur);
+				final double v = getProb(seqs2, seq, occur) - 2 * getProb(seqs1, seq, occur)
+						+ getProb(seqs0, seq, occur);
+				normR += r * r;
+				normV += v * v;
+			}
+		}
+		if (normV == 0.)
+			return null;
+		final double alpha = Math.min(-1., -Math.sqrt(normR / normV)); // -1 gives seqs2
+
+		// Extrapolate, clip and renormalize each row
+		final Table<Sequence, Integer, Double> extrapolated = HashBasedTable.create();
+		for (final Sequence seq : seqs2.rowKeySet()) {
+			double rowSum = 0;
+			for (final int occur : occurrences(seq, seqs0, seqs1, seqs2)) {
+				final double p0 = getProb(seqs0, seq, occur);
+				final double r = getProb(seqs1, seq, occur) - p0;
+				final double v = getProb(seqs2, seq, occur) - 2 * getProb(seqs1, seq, occur) + p0;
+				final double prob = Math.min(Math.max(p0 - 2 * alpha * r + alpha * alpha * v, 0.), 1.);
+				extrapolated.put(seq, occur, prob);
+				rowSum += prob;
+			}
+			if (rowSum == 0.) {
+				extrapolated.row(seq).putAll(seqs2.row(seq));
+				continue;
+			}
+			for (final Entry<Integer, Double> entry : extrapolated.row(seq).entrySet())
+				entry.setValue(entry.getValue() / rowSum);
+		}
+		return extrapolated;
+	}
+
+	/** Occurrences with a probability in any of the given rows */
+	private static Set<Integer> occurrences(final Sequence seq, final Table<Sequence, Integer, Double> seqs0,
+			final Table<Sequence, Integer, Double> seqs1, final Table<Sequence, Integer, Double> seqs2) {
+		final Set<Integer> occurrences = new HashSet<>(seqs0.row(seq).keySet());
+		occurrences.addAll(seqs1.row(seq).keySet());
+		occurrences.addAll(seqs2.row(seq).keySet());
+		return occurrences;
+	}
+
+	/** Probability of occurrence (zero if not in the table) */
+	private static double getProb(final Table<Sequence, Integer, Double> sequences, final Sequence seq,
+			final int occur) {
+		final Double prob = sequences.get(seq, occur);
+		return prob == null ? 0. : prob;
+	}
+
+	/**
+	 * Calculate norm(P_prev - P_new) (infinite if the sets of sequences
+	 * differ)
+	 */
+	private static double parameterNorm(final Table<Sequence, Integer, Double> prevSequences,
+			final Table<Sequence, Integer, Double> newSequences) {
+		if (!prevSequences.rowKeySet().equals(newSequences.rowKeySet()))
+			return Double.POSITIVE_INFINITY;
+		double norm = 0;
+		for (final Sequence seq : prevSequences.rowKeySet()) {
+			for (final int occur : prevSequences.row(seq).keySet()) {
+				// Empty multiplicities have zero prob
+				norm += Math.pow(prevSequences.get(seq, occur) - getProb(newSequences, seq, occur), 2);
+			}
+		}
+		return Math.sqrt(norm);
+	}
+
 	/**
 	 * Generate candidate sequences by combining existing seqs with highest
 	 * order. Evaluate candidates with highest order first.
@@ -256,106 +569,190 @@ public abstract class SequenceMiningCore {
 	 *            ordering that determines which sequences to combine first
 	 * @param supports
 	 *            cached sequence supports for the above ordering
-	 * @param candidateSupportOrdering
-	 *            ordering that determines which candidates to evaluate first
 	 * @param candidateSupports
-	 *            cached candididate supports for the above ordering
+	 *            cached candididate supports that determine which candidates
+	 *            to evaluate first
+	 * @param cooccurrences
+	 *            transactions containing each sequence (null to join all
+	 *            pairs)
+	 * @param frontier
+	 *            persistent candidate queue (null to enumerate candidates at
+	 *            each step)
 	 */
 	private static void combineSequencesStep(final Table<Sequence, Integer, Double> sequences,
-			final TransactionDatabase transactions, final Set<Sequence> rejected_seqs,
+			final TransactionDatabase transactions, final CandidateStore rejected_seqs,
 			final InferenceAlgorithm inferenceAlgorithm, final int maxSteps,
 			final Ordering<Sequence> sequenceSupportOrdering, final HashMap<Sequence, Integer> supports,
-			final Ordering<Sequence> candidateSupportOrdering, final HashMap<Sequence, Integer> candidateSupports) {
+			final CandidateStore candidateSupports, final CooccurrenceIndex cooccurrences,
+			final CandidateFrontier frontier, final ExecutionContext context) {
+
+		// Index transactions containing new sequences
+		if (cooccurrences != null)
+			cooccurrences.update(sequences.rowKeySet(), transactions, context);
 
-		// Set up support-ordered priority queue
-		final PriorityQueue<Sequence> candidateQueue = new PriorityQueue<Sequence>(maxSteps, candidateSupportOrdering);
+		// Set up support-ordered priority queue (persistent if the frontier
+		// can be kept up to date)
+		final boolean persistent = frontier != null
+				&& frontier.update(sequences.rowKeySet(), rejected_seqs, transactions, context);
+		final CandidateQueue candidateQueue = persistent ? frontier.getQueue() : new CandidateQueue(maxSteps);
+
+		// Sequences each candidate was (first) joined from
+		final Map<Sequence, Tuple2<Sequence, Sequence>> parents = persistent ? frontier.getParents()
+				: new HashMap<>();
 
 		// Sort sequences according to given ordering
 		final ArrayList<Sequence> sortedSequences = new ArrayList<>(sequences.rowKeySet());
-		Collections.sort(sortedSequences, sequenceSupportOrdering);
+		if (!persistent)
+			Collections.sort(sortedSequences, sequenceSupportOrdering);
 
 		// Find maxSteps superseqs for all seqs
 		// final long startTime = System.nanoTime();
 		int noAdded = 0;
 		int istart = 0;
-		int jstart = 0;
 		int kstart = 0;
-		boolean exhausted = true;
+		boolean exhausted = !persistent;
 		final int len = sortedSequences.size();
 		while (noAdded < maxSteps && exhausted) {
 			exhausted = false;
 			int noUncached = 0;
-			final HashSet<Sequence> uncachedCandidates = new HashSet<>();
-			outerLoop: for (int k = kstart; k < 2 * len - 2; k++) {
-				for (int i = istart; i < len && i < k + 1; i++) {
-					for (int j = jstart; j < len && i + j < k + 1; j++) {
-						if (k <= i + j && i != j) {
-
-							// Create new candidates by joining seqs
-							final Sequence seq1 = sortedSequences.get(i);
-							final Sequence seq2 = sortedSequences.get(j);
-							final Sequence cand = new Sequence(seq1, seq2);
-
-							// Add candidate to queue
-							if (cand != null && !rejected_seqs.contains(cand)) {
-								final Integer supp = candidateSupports.get(cand);
-								if (supp == null) {
-									uncachedCandidates.add(cand);
-									noUncached++;
-								} else { // add cached candidate to queue
-									candidateQueue.add(cand);
-									noAdded++;
-								}
-							}
-
-							// Possibly found enough candidates
-							if (noAdded + noUncached >= maxSteps) {
-								istart = i;
-								jstart = j + 1;
-								kstart = k;
-								exhausted = true;
-								break outerLoop;
-							}
+			final HashMap<Sequence, Integer> uncachedCandidates = new HashMap<>();
+			// Join seqs along the diagonals k = i + j, in blocks of diagonals
+			// joined concurrently and merged in order (each wave of blocks
+			// covering at least as many pairs as candidates still wanted)
+			outerLoop: while (kstart < 2 * len - 2) {
+				final List<int[]> blocks = getDiagonalBlocks(len, kstart, istart, maxSteps - noAdded - noUncached);
+				final List<List<Join>> blockJoins = context.invokeAll(blocks,
+						block -> joinSequences(sortedSequences, block, rejected_seqs, candidateSupports, cooccurrences));
+				for (final List<Join> joins : blockJoins) {
+					for (final Join join : joins) {
+
+						// Add candidate to queue
+						final Sequence cand = join.candidate;
+						final Sequence seq1 = sortedSequences.get(join.i);
+						final Sequence seq2 = sortedSequences.get(join.k - join.i);
+						parents.putIfAbsent(cand, new Tuple2<>(seq1, seq2));
+						final Integer supp = join.support;
+						if (supp == null || supp < 0) { // bounded by parent supports
+							uncachedCandidates.merge(cand, getSupportBound(seq1, seq2, supports, join.bound, supp),
+									Math::min);
+							noUncached++;
+						} else if (supp == 0) { // known to be unsupported
+							noUncached++;
+						} else { // add cached candidate to queue
+							candidateQueue.add(cand, supp);
+							noAdded++;
+						}
+
+						// Possibly found enough candidates
+						if (noAdded + noUncached >= maxSteps) {
+							istart = join.i + 1;
+							kstart = join.k;
+							exhausted = true;
+							break outerLoop;
 						}
 					}
-					jstart = 0;
 				}
+				kstart = blocks.get(blocks.size() - 1)[2];
 				istart = 0;
 			}
 
-			// Add uncached candidates to queue
-			final Map<Sequence, Long> candidatesWithSupports = EMStep.getSupportsOfSequences(transactions,
-					uncachedCandidates);
-			for (final Entry<Sequence, Long> entry : candidatesWithSupports.entrySet()) {
-				final Sequence cand = entry.getKey();
-				final int supp = Math.toIntExact(entry.getValue());
-				if (supp > 0) { // ignore unsupported sequences
-					candidateSupports.put(cand, supp);
-					candidateQueue.add(cand);
-					noAdded++;
-				}
-			}
+			// Add uncached candidates to queue (counting their supports lazily
+			// if all candidates were enumerated)
+			noAdded += queueUncounted(uncachedCandidates, candidateQueue, candidateSupports, transactions,
+					LAZY_SUPPORTS && !exhausted, getSupportEstimator(cooccurrences, parents), context);
 		}
 		logger.info(" Finished bulding priority queue. Size: " + candidateQueue.size() + "\n");
 		// logger.info(" Time taken: " + (System.nanoTime() - startTime) / 1e6);
 		// logger.finest(" Structural candidate itemsets: ");
 
-		// Evaluate candidates with highest support first
+		// Evaluate candidates with highest support (or predicted gain among
+		// windows of those with highest support) first (speculatively
+		// evaluating the next few concurrently against the committed model)
+		// and accept up to MAX_ACCEPTED of them whose supporting transactions
+		// barely overlap, each within the avg. (or max. no. accepted) evals
 		int counter = 0;
-		for (Sequence topCandidate; (topCandidate = candidateQueue.poll()) != null;) {
+		int noAccepted = 0;
+		int budget = Integer.MAX_VALUE;
+		final BitSet acceptedTids = new BitSet(transactions.size());
+		final List<Sequence> topCandidates = new ArrayList<>(SPECULATION);
+		final List<Sequence> deferred = new ArrayList<>();
+		final Deque<Sequence> window = new ArrayDeque<>();
+		final Map<Sequence, Integer> supportRanks = new HashMap<>(); // since last accepted
+		int noPolled = 0;
+		int lastAccepted = 0;
+		nextCandidates: while ((!candidateQueue.isEmpty() || !window.isEmpty()) && budget > 0) {
+			topCandidates.clear();
+			while (topCandidates.size() < Math.min(SPECULATION, budget)) {
+				if (GAIN_WINDOW > 0 && window.isEmpty())
+					noPolled += fillWindow(window, supportRanks, noPolled, candidateQueue, candidateSupports,
+							transactions, parents, context);
+				final Sequence topCandidate = GAIN_WINDOW > 0 ? window.poll()
+						: pollCandidate(candidateQueue, candidateSupports, transactions, context);
+				if (topCandidate == null)
+					break;
+				if (GAIN_WINDOW == 0)
+					supportRanks.putIfAbsent(topCandidate, ++noPolled);
+				topCandidates.add(topCandidate);
+			}
+			final List<Evaluation> evaluations = context.invokeAll(topCandidates,
+					candidate -> evaluateCandidate(transactions, inferenceAlgorithm, candidate,
+							scan -> getOverlap(scan, acceptedTids) <= MAX_OVERLAP * scan.getSupport(), context));
+			noEvaluations += evaluations.size();
 			// logger.finest("\n Candidate: " + topCandidate + ", supp: "
 			// + candidateSupports.get(topCandidate)
 			// / (double) transactions.size());
-			counter++;
-			rejected_seqs.add(topCandidate); // candidate seen
-			final boolean accepted = evaluateCandidate(sequences, transactions, inferenceAlgorithm, topCandidate);
-			if (accepted == true) { // Better itemset found
-				// update supports
-				supports.put(topCandidate, candidateSupports.get(topCandidate));
-				logger.info(" Number of eval calls: " + counter + "\n");
-				return;
+			for (int i = 0; i < evaluations.size(); i++) {
+				final Evaluation evaluation = evaluations.get(i);
+				counter++;
+				budget--;
+				if (!evaluation.admissible) { // reconsider at next step
+					deferred.add(evaluation.candidate);
+					continue;
+				}
+				rejected_seqs.add(evaluation.candidate); // candidate seen
+				final boolean accepted = acceptCandidate(sequences, transactions, evaluation, context);
+				if (!Double.isNaN(evaluation.estimate))
+					recordScreening(evaluation, accepted);
+				if (accepted == true) { // Better itemset found
+					// update supports
+					supports.put(evaluation.candidate, candidateSupports.get(evaluation.candidate));
+					if (noAccepted == 0)
+						logger.info(" Number of eval calls: " + counter + "\n");
+					noAccepted++;
+					noOrderedAcceptances++;
+					noOrderedEvaluations += counter - lastAccepted;
+					// support order would evaluate all candidates up to its
+					// support rank (since the last acceptance) to reach it
+					noSupportOrderEvaluations += supportRanks.get(evaluation.candidate);
+					lastAccepted = counter;
+					supportRanks.clear();
+					noPolled = 0;
+					budget = Math.max(counter / noAccepted, MAX_ACCEPTED);
+					noSpeculativeEvaluations += evaluations.size() - i - 1;
+					// Requeue candidates evaluated against the previous model
+					for (int j = i + 1; j < evaluations.size(); j++) {
+						final Sequence candidate = evaluations.get(j).candidate;
+						candidateQueue.add(candidate, candidateSupports.get(candidate));
+					}
+					// Requeue candidates ranked against the previous model
+					requeue(window, candidateQueue, candidateSupports);
+					window.clear();
+					if (noAccepted == MAX_ACCEPTED) {
+						requeue(deferred, candidateQueue, candidateSupports);
+						return;
+					}
+					for (final int tid : evaluation.scan.getTids())
+						acceptedTids.set(tid);
+					continue nextCandidates;
+				}
 			}
 		}
+		requeue(window, candidateQueue, candidateSupports);
+		requeue(deferred, candidateQueue, candidateSupports);
+		if (noAccepted > 0) {
+			logger.info(" Accepted " + noAccepted + " candidates in " + counter + " eval calls\n");
+			return;
+		}
 
 		if (exhausted) { // Priority queue exhausted
 			logger.warning("\n Priority queue exhausted. Exiting. \n");
@@ -369,12 +766,254 @@ public abstract class SequenceMiningCore {
 
 	}
 
-	/** Evaluate a candidate sequence to see if it should be included */
-	private static boolean evaluateCandidate(final Table<Sequence, Integer, Double> sequences,
-			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm,
-			final Sequence candidate) {
+	/**
+	 * Split the diagonals of the join matrix of len sequences from diagonal
+	 * kstart (row istart) on into blocks of at least JOIN_BLOCK_SIZE pairs,
+	 * enough to cover the given no. of pairs
+	 *
+	 * @return blocks {first diagonal, its first row, end diagonal}
+	 */
+	static List<int[]> getDiagonalBlocks(final int len, final int kstart, final int istart, final int noPairs) {
+		final List<int[]> blocks = new ArrayList<>();
+		int blockStart = kstart;
+		int blockPairs = 0;
+		int totalPairs = 0;
+		int k = kstart;
+		for (; k < 2 * len - 2 && totalPairs < noPairs; k++) {
+			final int from = Math.max(k == kstart ? istart : 0, k - len + 1);
+			final int to = Math.min(k, len - 1) + 1;
+			final int pairs = Math.max(to - from, 0) - (k % 2 == 0 && from <= k / 2 && k / 2 < to ? 1 : 0);
+			blockPairs += pairs;
+			totalPairs += pairs;
+			if (blockPairs >= JOIN_BLOCK_SIZE) {
+				blocks.add(new int[] { blockStart, blockStart == kstart ? istart : 0, k + 1 });
+				blockStart = k + 1;
+				blockPairs = 0;
+			}
+		}
+		if (blockStart < k || blocks.isEmpty())
+			blocks.add(new int[] { blockStart, blockStart == kstart ? istart : 0, Math.max(k, blockStart + 1) });
+		return blocks;
+	}
 
-		logger.finer("\n Candidate: " + candidate);
+	/**
+	 * Join the pairs i != j of the given sequences on the given block of
+	 * diagonals k = i + j (in order of k, then i), skipping rejected joins and
+	 * joins of sequences sharing no transaction
+	 */
+	private static List<Join> joinSequences(final List<Sequence> sequences, final int[] block,
+			final CandidateStore rejected_seqs, final CandidateStore candidateSupports,
+			final CooccurrenceIndex cooccurrences) {
+		final int len = sequences.size();
+		final List<Join> joins = new ArrayList<>();
+		int noSkipped = 0;
+		for (int k = block[0]; k < block[2]; k++) {
+			for (int i = Math.max(k == block[0] ? block[1] : 0, k - len + 1); i < len && i <= k; i++) {
+				final int j = k - i;
+				if (i == j)
+					continue;
+				final int bound = cooccurrences == null ? Integer.MAX_VALUE
+						: cooccurrences.getSupportBound(sequences.get(i), sequences.get(j));
+				if (bound == 0) {
+					noSkipped++;
+					continue;
+				}
+				final Sequence cand = new Sequence(sequences.get(i), sequences.get(j));
+				if (!rejected_seqs.contains(cand))
+					joins.add(new Join(cand, k, i, bound, candidateSupports.get(cand)));
+			}
+		}
+		if (cooccurrences != null)
+			cooccurrences.addSkipped(noSkipped);
+		return joins;
+	}
+
+	/** Candidate joined from the pair (i, k - i) of sequences */
+	private static class Join {
+		private final Sequence candidate;
+		private final int k;
+		private final int i;
+
+		/** No. of transactions containing both sequences */
+		private final int bound;
+
+		/** Cached support of the candidate (null if not counted) */
+		private final Integer support;
+
+		private Join(final Sequence candidate, final int k, final int i, final int bound, final Integer support) {
+			this.candidate = candidate;
+			this.k = k;
+			this.i = i;
+			this.bound = bound;
+			this.support = support;
+		}
+	}
+
+	/**
+	 * Upper bound on the support of the join of the given sequences (as a
+	 * transaction supporting it supports both), tightening the given
+	 * co-occurrence bound and the stored bound (if any)
+	 */
+	static int getSupportBound(final Sequence seq1, final Sequence seq2, final HashMap<Sequence, Integer> supports,
+			final int cooccurrenceBound, final Integer storedSupport) {
+		int bound = storedSupport == null ? cooccurrenceBound : Math.min(cooccurrenceBound, -storedSupport);
+		bound = Math.min(bound, supports.getOrDefault(seq1, Integer.MAX_VALUE));
+		return Math.min(bound, supports.getOrDefault(seq2, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Support estimates of candidates from a sample of the transactions shared
+	 * by the sequences they were joined from (null to rank candidates by their
+	 * support bounds)
+	 */
+	static ToIntFunction<Sequence> getSupportEstimator(final CooccurrenceIndex cooccurrences,
+			final Map<Sequence, Tuple2<Sequence, Sequence>> parents) {
+		if (APPROX_SUPPORTS == 0 || cooccurrences == null)
+			return null;
+		return cand -> cooccurrences.estimateSupport(cand, parents.get(cand)._1, parents.get(cand)._2,
+				APPROX_SUPPORTS);
+	}
+
+	/**
+	 * Queue the given candidates whose supports aren't counted yet, dropping
+	 * those longer than any transaction. If lazy (and the transactions are the
+	 * full database, so that the given support bounds hold) candidates are
+	 * queued by their support bounds (or ranked by the given support
+	 * estimates, if any) and only counted once they reach the head of the
+	 * queue, else their supports are counted now.
+	 *
+	 * @return no. of candidates queued
+	 */
+	static int queueUncounted(final Map<Sequence, Integer> bounds, final CandidateQueue candidateQueue,
+			final CandidateStore candidateSupports, final TransactionDatabase transactions, final boolean lazy,
+			final ToIntFunction<Sequence> estimator, final ExecutionContext context) {
+		final boolean full = transactions.getSampleWeight() == 1.;
+		final int maxLength = transactions.getMaxLength();
+		final Set<Sequence> uncounted = new HashSet<>();
+		final List<Sequence> bounded = new ArrayList<>();
+		for (final Entry<Sequence, Integer> entry : bounds.entrySet()) {
+			final Sequence cand = entry.getKey();
+			if (cand.size() > maxLength)
+				noTooLong++;
+			if (cand.size() > maxLength || full && entry.getValue() == 0) {
+				if (full) // remember unsupported candidate
+					candidateSupports.put(cand, 0);
+			} else if (lazy && full) {
+				candidateSupports.put(cand, -entry.getValue());
+				bounded.add(cand);
+			} else {
+				uncounted.add(cand);
+			}
+		}
+		final List<Integer> estimates = estimator == null ? null : context.invokeAll(bounded, estimator::applyAsInt);
+		for (int i = 0; i < bounded.size(); i++) {
+			final Sequence cand = bounded.get(i);
+			candidateQueue.add(cand, estimates == null ? -bounds.get(cand) : -estimates.get(i));
+		}
+		noSupportBounded += bounded.size();
+		if (estimates != null)
+			noSupportEstimated += bounded.size();
+		return bounded.size() + countSupports(uncounted, candidateQueue, candidateSupports, transactions, context);
+	}
+
+	/**
+	 * Poll the candidate with the highest support, first counting (in
+	 * batches) the supports of candidates at the head of the queue that were
+	 * queued by their support bounds. A bound is never below the support, so
+	 * candidates are polled in the same order as if all had been counted.
+	 * <p>
+	 * If candidates are ranked by support estimates, only the polled candidate
+	 * is counted (and skipped if unsupported).
+	 */
+	static Sequence pollCandidate(final CandidateQueue candidateQueue, final CandidateStore candidateSupports,
+			final TransactionDatabase transactions, final ExecutionContext context) {
+		while (APPROX_SUPPORTS > 0 && !candidateQueue.isEmpty() && candidateQueue.peekSupport() < 0) {
+			final Sequence cand = candidateQueue.poll();
+			final CandidateQueue counted = new CandidateQueue(1);
+			noSupportCounted++;
+			if (countSupports(Collections.singleton(cand), counted, candidateSupports, transactions, context) > 0)
+				return cand;
+		}
+		while (!candidateQueue.isEmpty() && candidateQueue.peekSupport() < 0) {
+			final Set<Sequence> uncounted = new HashSet<>();
+			while (!candidateQueue.isEmpty() && candidateQueue.peekSupport() < 0 && uncounted.size() < SUPPORT_BATCH)
+				uncounted.add(candidateQueue.poll());
+			noSupportCounted += uncounted.size();
+			countSupports(uncounted, candidateQueue, candidateSupports, transactions, context);
+		}
+		return candidateQueue.poll();
+	}
+
+	/**
+	 * Count the supports of the given candidates and queue the supported ones
+	 *
+	 * @return no. of candidates queued
+	 */
+	private static int countSupports(final Set<Sequence> candidates, final CandidateQueue candidateQueue,
+			final CandidateStore candidateSupports, final TransactionDatabase transactions,
+			final ExecutionContext context) {
+		if (candidates.isEmpty())
+			return 0;
+		final Map<Sequence, Long> candidatesWithSupports = EMStep.getSupportsOfSequences(transactions, candidates,
+				context);
+		int noQueued = 0;
+		for (final Sequence cand : candidates) {
+			final Long count = candidatesWithSupports.get(cand);
+			final int supp = count == null ? 0 : (int) Math.round(count * transactions.getSampleWeight());
+			if (supp > 0) {
+				candidateSupports.put(cand, supp);
+				candidateQueue.add(cand, supp);
+				noQueued++;
+			} else if (transactions.getSampleWeight() == 1.) { // remember unsupported candidate
+				candidateSupports.put(cand, 0);
+			}
+		}
+		return noQueued;
+	}
+
+	/**
+	 * Poll up to GAIN_WINDOW candidates with the highest support into the
+	 * given window, ordered by decreasing predicted gain, recording their
+	 * ranks in support order (after the given no. already polled)
+	 *
+	 * @return no. of candidates polled
+	 */
+	private static int fillWindow(final Deque<Sequence> window, final Map<Sequence, Integer> supportRanks,
+			final int noPolled, final CandidateQueue candidateQueue, final CandidateStore candidateSupports,
+			final TransactionDatabase transactions, final Map<Sequence, Tuple2<Sequence, Sequence>> parents,
+			final ExecutionContext context) {
+		final List<Sequence> polled = new ArrayList<>(GAIN_WINDOW);
+		for (Sequence candidate; polled.size() < GAIN_WINDOW
+				&& (candidate = pollCandidate(candidateQueue, candidateSupports, transactions, context)) != null;) {
+			polled.add(candidate);
+			supportRanks.putIfAbsent(candidate, noPolled + polled.size());
+		}
+		final Map<Sequence, Double> gains = new HashMap<>();
+		for (final Sequence candidate : polled) {
+			final Tuple2<Sequence, Sequence> parent = parents.get(candidate);
+			final int support = (int) Math.round(candidateSupports.get(candidate) / transactions.getSampleWeight());
+			gains.put(candidate, parent == null ? Double.NEGATIVE_INFINITY
+					: CandidateGain.getPredictedGain(transactions, parent._1, parent._2, support));
+		}
+		polled.sort((cand1, cand2) -> Double.compare(gains.get(cand2), gains.get(cand1))); // stable
+		window.addAll(polled);
+		return polled.size();
+	}
+
+	/** Add the given (counted) candidates back to the queue */
+	private static void requeue(final Collection<Sequence> candidates, final CandidateQueue candidateQueue,
+			final CandidateStore candidateSupports) {
+		for (final Sequence candidate : candidates)
+			candidateQueue.add(candidate, candidateSupports.get(candidate));
+	}
+
+	/**
+	 * Evaluate a candidate sequence against the committed model (without
+	 * modifying it, so candidates can be evaluated concurrently)
+	 */
+	private static Evaluation evaluateCandidate(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final Sequence candidate,
+			final Predicate<CandidateScan> admissible, final ExecutionContext context) {
 
 		// Find cost in parallel
 		Tuple2<Double, Map<Integer, Double>> costAndProb;
@@ -382,10 +1021,60 @@ public abstract class SequenceMiningCore {
 		// costAndProb = SparkEMStep.structuralEMStep(transactions,
 		// inferenceAlgorithm, candidate);
 		// } else {
-		costAndProb = EMStep.structuralEMStep(transactions, inferenceAlgorithm, candidate);
+		final CandidateScan scan = EMStep.scanCandidate(transactions, candidate, context);
+		if (!admissible.test(scan))
+			return new Evaluation(candidate, scan, false, Double.NaN, null, Double.NaN, false);
+
+		// Screen candidate on a sample of its supporting transactions (fully
+		// evaluating every few screened out candidates to audit the screen)
+		double estimate = Double.NaN;
+		boolean screenedOut = false;
+		if (SCREEN_SIZE > 0 && scan.getSupport() > SCREEN_SIZE) {
+			estimate = EMStep.screenCandidate(transactions, inferenceAlgorithm, candidate, scan, SCREEN_SIZE,
+					new Random(candidate.hashCode()), context);
+			screenedOut = Double.isFinite(estimate) && estimate >= transactions.getAverageCost() + SCREEN_MARGIN;
+			if (screenedOut && Math.floorMod(candidate.hashCode(), AUDIT_EVERY) != 0)
+				return new Evaluation(candidate, scan, true, Double.POSITIVE_INFINITY, null, estimate, true);
+		}
+
+		costAndProb = EMStep.structuralEMStep(transactions, inferenceAlgorithm, candidate, scan, context);
 		// }
-		final double curCost = costAndProb._1;
-		final Map<Integer, Double> prob = costAndProb._2;
+		return new Evaluation(candidate, scan, true, costAndProb._1, costAndProb._2, estimate, screenedOut);
+	}
+
+	/** Record the outcome of a screened candidate */
+	private static void recordScreening(final Evaluation evaluation, final boolean accepted) {
+		noScreened++;
+		if (!evaluation.screenedOut) {
+			if (!accepted)
+				noWrongPasses++;
+		} else {
+			noScreenedOut++;
+			if (evaluation.prob != null) { // audited
+				noAudited++;
+				if (accepted)
+					noWrongRejections++;
+			}
+		}
+	}
+
+	/** No. of the candidate's supporting transactions among the given ones */
+	private static int getOverlap(final CandidateScan scan, final BitSet tids) {
+		int overlap = 0;
+		for (final int tid : scan.getTids()) {
+			if (tids.get(tid))
+				overlap++;
+		}
+		return overlap;
+	}
+
+	/** Include evaluated candidate sequence if it lowers the cost */
+	private static boolean acceptCandidate(final Table<Sequence, Integer, Double> sequences,
+			final TransactionDatabase transactions, final Evaluation evaluation, final ExecutionContext context) {
+		final Sequence candidate = evaluation.candidate;
+		final double curCost = evaluation.cost;
+		final Map<Integer, Double> prob = evaluation.prob;
+		logger.finer("\n Candidate: " + candidate);
 		logger.finer(String.format(", cost: %.2f", curCost));
 
 		// Return if better collection of seqs found
@@ -397,7 +1086,7 @@ public abstract class SequenceMiningCore {
 			// newItemsets = SparkEMStep.addAcceptedCandidateCache(
 			// transactions, candidate, prob);
 			// } else {
-			newSequences = EMStep.addAcceptedCandidateCache(transactions, candidate, prob);
+			newSequences = EMStep.addAcceptedCandidateCache(transactions, candidate, prob, evaluation.scan, context);
 			// }
 			// Update sequences with newly inferred sequences
 			sequences.clear();
@@ -410,13 +1099,40 @@ public abstract class SequenceMiningCore {
 		return false;
 	}
 
+	/**
+	 * Cost and probabilities of a candidate under the committed model (if it
+	 * was admissible for evaluation and not screened out) and its screening
+	 * estimate (NaN if not screened)
+	 */
+	private static class Evaluation {
+		private final Sequence candidate;
+		private final CandidateScan scan;
+		private final boolean admissible;
+		private final double cost;
+		private final Map<Integer, Double> prob;
+		private final double estimate;
+		private final boolean screenedOut;
+
+		private Evaluation(final Sequence candidate, final CandidateScan scan, final boolean admissible,
+				final double cost, final Map<Integer, Double> prob, final double estimate,
+				final boolean screenedOut) {
+			this.candidate = candidate;
+			this.scan = scan;
+			this.admissible = admissible;
+			this.cost = cost;
+			this.prob = prob;
+			this.estimate = estimate;
+			this.screenedOut = screenedOut;
+		}
+	}
+
 	/** Sort sequences by interestingness */
 	public static Map<Sequence, Double> sortSequences(final HashMap<Sequence, Double> sequences,
 			final HashMap<Sequence, Double> intMap) {
 
 		final Ordering<Sequence> comparator = Ordering.natural().reverse().onResultOf(Functions.forMap(intMap))
 				.compound(Ordering.natural().reverse().onResultOf(Functions.forMap(sequences)))
-				.compound(Ordering.usingToString());
+				.compound(Sequence.ITEM_ORDER);
 		final Map<Sequence, Double> sortedSequences = ImmutableSortedMap.copyOf(sequences, comparator);
 
 		return sortedSequences;
@@ -429,11 +1145,21 @@ public abstract class SequenceMiningCore {
 	 */
 	public static HashMap<Sequence, Double> calculateInterestingness(final HashMap<Sequence, Double> sequences,
 			final TransactionDatabase transactions) {
+		return calculateInterestingness(sequences, transactions, ExecutionContext.commonPool());
+	}
+
+	/**
+	 * Calculate interestingness as defined by i(S) = |z_S >= 1|/|T : S in T|,
+	 * counting supports in the given execution context
+	 */
+	public static HashMap<Sequence, Double> calculateInterestingness(final HashMap<Sequence, Double> sequences,
+			final TransactionDatabase transactions, final ExecutionContext context) {
 
 		final HashMap<Sequence, Double> interestingnessMap = new HashMap<>();
 
 		// Calculate supports
-		final Map<Sequence, Long> supports = EMStep.getSupportsOfSequences(transactions, sequences.keySet());
+		final Map<Sequence, Long> supports = EMStep.getSupportsOfSequences(transactions, sequences.keySet(),
+				context);
 
 		// Calculate interestingness
 		final long noTransactions = transactions.size();
@@ -0,0 +1,171 @@
+package sequencemining.main;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
+import sequencemining.sequence.Sequence;
+import sequencemining.transaction.TransactionDatabase;
+
+/**
+ * Mini-batch (stochastic) structural EM for very large databases.
+ * <p>
+ * Each structural step samples a mini-batch of transactions, optimizes the
+ * parameters of the model on it and evaluates candidates on it alone. The
+ * resulting batch probabilities are averaged into the model with a decreasing
+ * step size. Every few steps a full pass optimizes the model on the whole
+ * database and the model is rolled back to the last confirmed one if this
+ * raises the cost, so candidates accepted on batches can't degrade the model.
+ */
+public class StochasticEM {
+
+	private static final Logger logger = SequenceMiningCore.logger;
+
+	/** Step size at step k is (k + 1)^-STEP_SIZE_DECAY */
+	private static final double STEP_SIZE_DECAY = 0.6;
+
+	private final TransactionDatabase transactions;
+	private final InferenceAlgorithm inferenceAlgorithm;
+	private final int batchSize;
+	private final int confirmEvery;
+	private final ExecutionContext context;
+	private final Random random = new Random(1);
+
+	/** Model before the current step */
+	private Table<Sequence, Integer, Double> stepStart;
+
+	/** Last model confirmed on the full database and its cost */
+	private Table<Sequence, Integer, Double> confirmed;
+	private double confirmedCost;
+
+	private int noSteps = 0;
+	private int noConfirmations = 0;
+	private int noRollbacks = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param transactions
+	 *            full database (with parameters of given sequences optimized
+	 *            on it)
+	 */
+	public StochasticEM(final TransactionDatabase transactions, final Table<Sequence, Integer, Double> sequences,
+			final InferenceAlgorithm inferenceAlgorithm, final int batchSize, final int confirmEvery,
+			final ExecutionContext context) {
+		this.transactions = transactions;
+		this.inferenceAlgorithm = inferenceAlgorithm;
+		this.batchSize = batchSize;
+		this.confirmEvery = confirmEvery;
+		this.context = context;
+		this.confirmed = HashBasedTable.create(sequences);
+		this.confirmedCost = transactions.getAverageCost();
+	}
+
+	/**
+	 * Sample the next mini-batch and optimize the parameters of the given
+	 * sequences on it
+	 */
+	public TransactionDatabase nextBatch(final Table<Sequence, Integer, Double> sequences) {
+		stepStart = HashBasedTable.create(sequences);
+		final TransactionDatabase batch = transactions.sample(batchSize, random);
+		EMStep.initializeCachedSequences(batch, sequences, true, context);
+		SequenceMiningCore.expectationMaximizationStep(sequences, batch, inferenceAlgorithm, context);
+		return batch;
+	}
+
+	/**
+	 * Average the given batch-optimal sequences into the model (confirming the
+	 * model on the full database every few steps)
+	 *
+	 * @return sequences discarded by a rollback
+	 */
+	public Set<Sequence> update(final Table<Sequence, Integer, Double> sequences) {
+		noSteps++;
+		final double stepSize = Math.pow(noSteps + 1, -STEP_SIZE_DECAY);
+		final Table<Sequence, Integer, Double> averaged = average(stepStart, sequences, stepSize,
+				1. / transactions.size());
+		sequences.clear();
+		sequences.putAll(averaged);
+		if (noSteps % confirmEvery == 0)
+			return confirm(sequences);
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Optimize the parameters of the given sequences on the full database,
+	 * rolling back to the last confirmed sequences if the cost got worse
+	 *
+	 * @return sequences discarded by the rollback
+	 */
+	public Set<Sequence> confirm(final Table<Sequence, Integer, Double> sequences) {
+		EMStep.initializeCachedSequences(transactions, sequences, true, context);
+		SequenceMiningCore.expectationMaximizationStep(sequences, transactions, inferenceAlgorithm, context);
+		noConfirmations++;
+		if (transactions.getAverageCost() <= confirmedCost) {
+			logger.info(String.format(" Stochastic EM: confirmed cost %.2f after %d steps%n",
+					transactions.getAverageCost(), noSteps));
+			confirmed = HashBasedTable.create(sequences);
+			confirmedCost = transactions.getAverageCost();
+			return Collections.emptySet();
+		}
+		logger.info(String.format(" Stochastic EM: cost %.2f above confirmed cost %.2f, rolling back%n",
+				transactions.getAverageCost(), confirmedCost));
+		final Set<Sequence> discarded = new HashSet<>(sequences.rowKeySet());
+		discarded.removeAll(confirmed.rowKeySet());
+		sequences.clear();
+		sequences.putAll(confirmed);
+		EMStep.initializeCachedSequences(transactions, sequences, true, context);
+		SequenceMiningCore.expectationMaximizationStep(sequences, transactions, inferenceAlgorithm, context);
+		noRollbacks++;
+		return discarded;
+	}
+
+	/** Pretty printing of the stochastic EM statistics */
+	public String statsToString() {
+		return String.format(" Stochastic EM: %d mini-batch steps of %d transactions, %d full confirmations,"
+				+ " %d rollbacks%n", noSteps, batchSize, noConfirmations, noRollbacks);
+	}
+
+	/**
+	 * Average the probabilities of each occurrence (rows missing from a table
+	 * never occur), dropping rows that would explain less than minProb of the
+	 * transactions. New sequences take their batch probabilities.
+	 */
+	private static Table<Sequence, Integer, Double> average(final Table<Sequence, Integer, Double> prev,
+			final Table<Sequence, Integer, Double> batch, final double stepSize, final double minProb) {
+		final Table<Sequence, Integer, Double> averaged = HashBasedTable.create();
+		final Set<Sequence> seqs = new HashSet<>(prev.rowKeySet());
+		seqs.addAll(batch.rowKeySet());
+		for (final Sequence seq : seqs) {
+			final Set<Integer> occurrences = new HashSet<>(prev.row(seq).keySet());
+			occurrences.addAll(batch.row(seq).keySet());
+			occurrences.remove(0);
+			double rowSum = 0;
+			for (final int occur : occurrences) {
+				final double prob = prev.containsRow(seq)
+						? (1 - stepSize) * getProb(prev, seq, occur) + stepSize * getProb(batch, seq, occur)
+						: getProb(batch, seq, occur);
+				averaged.put(seq, occur, prob);
+				rowSum += prob;
+			}
+			if (rowSum < minProb)
+				averaged.row(seq).clear();
+			else
+				averaged.put(seq, 0, 1 - rowSum);
+		}
+		return averaged;
+	}
+
+	private static double getProb(final Table<Sequence, Integer, Double> sequences, final Sequence seq,
+			final int occur) {
+		final Double prob = sequences.get(seq, occur);
+		return prob == null ? 0. : prob;
+	}
+
+}
@@ -3,11 +3,25 @@ package sequencemining.sequence;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 public class Sequence extends AbstractSequence implements Serializable {
 	private static final long serialVersionUID = -2766830126344921771L;
 
+	/** Orders sequences by length, then lexicographically by item */
+	public static final Comparator<Sequence> ITEM_ORDER = (seq1, seq2) -> {
+		final int size = seq1.size();
+		if (size != seq2.size())
+			return Integer.compare(size, seq2.size());
+		for (int i = 0; i < size; i++) {
+			final int cmp = Integer.compare(seq1.get(i), seq2.get(i));
+			if (cmp != 0)
+				return cmp;
+		}
+		return 0;
+	};
+
 	/**
 	 * Constructor
 	 */
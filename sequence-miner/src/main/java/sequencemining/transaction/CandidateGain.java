@@ -0,0 +1,61 @@
+package sequencemining.transaction;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Predicted decrease in the total cost from adding a candidate, computed in
+ * closed form from the committed covering counts alone (without any
+ * inference).
+ * <p>
+ * Each sequence is taken to occur in the coverings of as many transactions as
+ * it is used in, each with probability its usage over the no. of transactions.
+ * The candidate is assumed to replace both sequences it was joined from in as
+ * many coverings as its support and their usages allow, so the gain is the
+ * change in the cost of the occurrences of these three sequences. This is
+ * only a cheap score to rank candidates by.
+ */
+public class CandidateGain {
+
+	/**
+	 * Predicted gain (in nats) from adding the given candidate
+	 *
+	 * @param parent1
+	 *            first sequence the candidate was joined from
+	 * @param parent2
+	 *            second sequence the candidate was joined from
+	 * @param support
+	 *            no. of transactions that support the candidate
+	 */
+	public static double getPredictedGain(final TransactionDatabase transactions, final Sequence parent1,
+			final Sequence parent2, final int support) {
+		final int noTransactions = transactions.size();
+		final CoveringCounts counts = transactions.getCoveringCounts();
+		final int usage1 = getUsage(counts, parent1);
+		final int usage2 = getUsage(counts, parent2);
+		final int moved = Math.min(support, Math.min(usage1, usage2));
+		return getCost(usage1, noTransactions) - getCost(usage1 - moved, noTransactions)
+				+ getCost(usage2, noTransactions) - getCost(usage2 - moved, noTransactions)
+				- getCost(moved, noTransactions);
+	}
+
+	/** No. of transactions whose covering contains the given sequence */
+	private static int getUsage(final CoveringCounts counts, final Sequence seq) {
+		final int[] row = counts.getRow(seq);
+		int usage = 0;
+		for (int occur = 1; row != null && occur < row.length; occur++)
+			usage += row[occur];
+		return usage;
+	}
+
+	/** Cost of a sequence used in the coverings of usage transactions */
+	private static double getCost(final int usage, final int noTransactions) {
+		if (usage <= 0 || usage >= noTransactions)
+			return 0;
+		final double prob = usage / (double) noTransactions;
+		return -usage * Math.log(prob) - (noTransactions - usage) * Math.log(1 - prob);
+	}
+
+	private CandidateGain() {
+	}
+
+}
@@ -0,0 +1,78 @@
+package sequencemining.transaction;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Multiset;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Result of a single scan of the database for a candidate sequence: its
+ * support, its max. no. of repetitions in a transaction and the indices of the
+ * transactions that support it (which all later phases of the candidate's
+ * evaluation and commit are restricted to). The evaluation records the
+ * coverings of the supporting transactions with the candidate here, rather
+ * than in the transactions, so candidates can be evaluated concurrently.
+ */
+public class CandidateScan {
+
+	private int[] tids = new int[8];
+	private int support = 0;
+	private int maxReps = 0;
+	private LengthOrder order;
+	private Map<Integer, Multiset<Sequence>> coverings;
+
+	/** Record that transaction tid contains the candidate reps times */
+	public void add(final int tid, final int reps) {
+		if (reps == 0)
+			return;
+		if (support == tids.length)
+			tids = Arrays.copyOf(tids, 2 * support);
+		tids[support++] = tid;
+		maxReps = Math.max(maxReps, reps);
+	}
+
+	/** Merge other scan into this one */
+	public void merge(final CandidateScan other) {
+		if (support + other.support > tids.length)
+			tids = Arrays.copyOf(tids, support + other.support);
+		System.arraycopy(other.tids, 0, tids, support, other.support);
+		support += other.support;
+		maxReps = Math.max(maxReps, other.maxReps);
+	}
+
+	/** No. of transactions that support the candidate */
+	public int getSupport() {
+		return support;
+	}
+
+	/** Max. no. of repetitions of the candidate in a transaction */
+	public int getMaxReps() {
+		return maxReps;
+	}
+
+	/** Indices of the supporting transactions */
+	public int[] getTids() {
+		return Arrays.copyOf(tids, support);
+	}
+
+	/** Set the coverings of the supporting transactions with the candidate */
+	public void setCoverings(final Map<Integer, Multiset<Sequence>> coverings) {
+		this.coverings = coverings;
+	}
+
+	/** Covering of given supporting transaction with the candidate */
+	public Multiset<Sequence> getCovering(final int tid) {
+		return coverings.get(tid);
+	}
+
+	/** Supporting transactions ordered by decreasing length */
+	public LengthOrder getOrder(final List<Transaction> transactions) {
+		if (order == null)
+			order = new LengthOrder(transactions, getTids());
+		return order;
+	}
+
+}
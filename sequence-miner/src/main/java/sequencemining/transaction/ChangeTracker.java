@@ -0,0 +1,134 @@
+package sequencemining.transaction;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Tracks which transactions need their coverings re-inferred by the next hard
+ * EM step. The greedy covering of a transaction only depends on the
+ * probabilities of the sequences it caches, so a transaction only needs to be
+ * re-inferred if one of these changed since its covering was inferred (or its
+ * covering was set when a candidate was accepted).
+ * <p>
+ * Transactions caching each sequence are looked up through an index, which is
+ * the set of supporting transactions as the cache of each transaction holds
+ * exactly the model sequences it contains.
+ */
+public class ChangeTracker {
+
+	/** Indices of the transactions that cache each sequence (sorted) */
+	private final Map<Sequence, int[]> index;
+
+	/** Probabilities the cached coverings were inferred under */
+	private Map<Sequence, LogProbabilities> inferredRows;
+
+	/** Transactions whose covering was not inferred under inferredRows */
+	private final BitSet stale = new BitSet();
+
+	private final int noTransactions;
+
+	public ChangeTracker(final Map<Sequence, int[]> index, final int noTransactions) {
+		this.index = new HashMap<>(index);
+		this.noTransactions = noTransactions;
+	}
+
+	/**
+	 * Record a sequence newly cached by the given transactions, whose
+	 * coverings are now stale
+	 */
+	public void addSequence(final Sequence seq, final int[] tids) {
+		final int[] sorted = tids.clone();
+		Arrays.sort(sorted);
+		index.put(seq, sorted);
+		for (final int tid : tids)
+			stale.set(tid);
+	}
+
+	/** No. of transactions that cache the given sequence */
+	public int getNoCaching(final Sequence seq) {
+		final int[] tids = index.get(seq);
+		return tids == null ? 0 : tids.length;
+	}
+
+	/**
+	 * Get the transactions whose coverings may change under the given
+	 * probabilities, i.e. those that cache a sequence whose probabilities
+	 * changed by more than tol (or are stale)
+	 *
+	 * @return indices of the affected transactions or null if all are affected
+	 */
+	public int[] getAffected(final Map<Sequence, LogProbabilities> rows, final double tol) {
+		if (inferredRows == null)
+			return null;
+		final BitSet affected = (BitSet) stale.clone();
+		for (final Sequence seq : getChanged(rows, tol)) {
+			final int[] tids = index.get(seq);
+			if (tids != null) {
+				for (final int tid : tids)
+					affected.set(tid);
+			}
+		}
+		if (affected.cardinality() == noTransactions)
+			return null;
+		return affected.stream().toArray();
+	}
+
+	/**
+	 * Record that the affected transactions were re-inferred under the given
+	 * probabilities (and the others are unaffected by them)
+	 */
+	public void setInferred(final Map<Sequence, LogProbabilities> rows, final double tol) {
+		if (inferredRows == null || tol == 0.) {
+			inferredRows = rows;
+		} else { // keep the rows unchanged seqs were inferred under
+			final Map<Sequence, LogProbabilities> newInferredRows = new HashMap<>(inferredRows);
+			for (final Sequence seq : getChanged(rows, tol)) {
+				if (rows.containsKey(seq))
+					newInferredRows.put(seq, rows.get(seq));
+				else
+					newInferredRows.remove(seq);
+			}
+			inferredRows = newInferredRows;
+		}
+		stale.clear();
+	}
+
+	/** Get the probabilities the cached coverings were inferred under */
+	public Map<Sequence, LogProbabilities> getInferredRows() {
+		return inferredRows;
+	}
+
+	/** Sequences whose probabilities changed by more than tol */
+	private Set<Sequence> getChanged(final Map<Sequence, LogProbabilities> rows, final double tol) {
+		final Set<Sequence> changed = new HashSet<>();
+		for (final Sequence seq : rows.keySet()) {
+			if (!isSame(inferredRows.get(seq), rows.get(seq), tol))
+				changed.add(seq);
+		}
+		for (final Sequence seq : inferredRows.keySet()) {
+			if (!rows.containsKey(seq))
+				changed.add(seq);
+		}
+		return changed;
+	}
+
+	private static boolean isSame(final LogProbabilities row, final LogProbabilities other, final double tol) {
+		if (row == other)
+			return true;
+		if (row == null || other == null)
+			return false;
+		final int size = Math.max(row.size(), other.size());
+		for (int occur = 0; occur < size; occur++) {
+			if (Math.abs(row.getProb(occur) - other.getProb(occur)) > tol)
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,97 @@
+package sequencemining.transaction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.util.LogFactorial;
+
+/**
+ * Sufficient statistics for the cost of the cached coverings, so that the
+ * average cost under new probabilities can be computed in time proportional
+ * to the model size rather than the no. of transactions.
+ * <p>
+ * The cost of a transaction is the sum over its cached sequences of -log of
+ * the probability of their no. of occurrences in its covering, plus log of the
+ * factorial of the covering length (which is always the transaction length as
+ * coverings are complete). Summed over all transactions this only depends on
+ * the covering counts (for nonzero occurrences), the no. of transactions that
+ * cache each sequence (the rest being zero occurrences) and the sum of the log
+ * factorial terms.
+ */
+public class CostStatistics {
+
+	/** No. of transactions that cache each sequence */
+	private final Map<Sequence, Integer> noCaching;
+
+	/** Sum of the log factorials of the transaction lengths */
+	private final double sumLogFactorials;
+
+	private final int noTransactions;
+
+	public CostStatistics(final Map<Sequence, Long> noCaching, final List<Transaction> transactions) {
+		this.noCaching = new HashMap<>();
+		for (final Entry<Sequence, Long> entry : noCaching.entrySet())
+			this.noCaching.put(entry.getKey(), entry.getValue().intValue());
+		double sum = 0;
+		for (final Transaction t : transactions)
+			sum += LogFactorial.logFactorial(t.size());
+		this.sumLogFactorials = sum;
+		this.noTransactions = transactions.size();
+	}
+
+	/** Record a sequence newly cached by the given no. of transactions */
+	public void addSequence(final Sequence seq, final int noTransactionsCaching) {
+		noCaching.put(seq, noTransactionsCaching);
+	}
+
+	/**
+	 * Average cost of the counted coverings
+	 *
+	 * @param counts
+	 *            covering counts
+	 * @param cachedRows
+	 *            probabilities cached in the transactions (used to identify
+	 *            singletons that fill incomplete coverings)
+	 * @param rows
+	 *            probabilities to evaluate the cost under
+	 */
+	public double getAverageCost(final CoveringCounts counts, final Map<Sequence, LogProbabilities> cachedRows,
+			final Map<Sequence, LogProbabilities> rows) {
+		return getAverageCost(counts, cachedRows, rows, null, 0);
+	}
+
+	/**
+	 * Average cost of the counted coverings, where the given candidate is
+	 * temporarily cached by the given no. of transactions
+	 */
+	public double getAverageCost(final CoveringCounts counts, final Map<Sequence, LogProbabilities> cachedRows,
+			final Map<Sequence, LogProbabilities> rows, final Sequence candidate, final int candidateSupport) {
+		double totalCost = 0;
+		for (final Entry<Sequence, LogProbabilities> entry : rows.entrySet()) {
+			final Sequence seq = entry.getKey();
+			final LogProbabilities probs = entry.getValue();
+			final int[] row = counts.getRow(seq);
+			int noOccurring = 0;
+			if (row != null) {
+				for (int occur = 1; occur < row.length; occur++) {
+					if (row[occur] != 0) {
+						totalCost += row[occur] * probs.getCost(occur);
+						noOccurring += row[occur];
+					}
+				}
+			}
+			final LogProbabilities cachedRow = cachedRows.get(seq);
+			if (seq.size() == 1 && (cachedRow == null || cachedRow.isZero()))
+				continue; // ignore singletons used to fill incomplete coverings
+			final Integer caching = seq.equals(candidate) ? Integer.valueOf(candidateSupport) : noCaching.get(seq);
+			final int noZero = (caching == null ? 0 : caching) - noOccurring;
+			if (noZero > 0)
+				totalCost += noZero * probs.getCost(0);
+		}
+		return (totalCost + sumLogFactorials) / noTransactions;
+	}
+
+}
@@ -0,0 +1,226 @@
+package sequencemining.transaction;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collector;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.util.Tuple2;
+
+/**
+ * Counts of the no. of transactions whose covering contains each sequence a
+ * given no. of times.
+ * <p>
+ * Sequences in the (shared, read-only) index are counted in dense primitive
+ * arrays, any others (e.g. singletons used to fill incomplete coverings) in a
+ * small overflow map. Each parallel worker accumulates its own counts and these
+ * are merged pairwise, so no counter is ever shared between threads.
+ * <p>
+ * The counts of the committed model are kept in the transaction database so
+ * that a candidate only needs the change in the coverings of the transactions
+ * that support it.
+ */
+public class CoveringCounts {
+
+	private final Map<Sequence, Integer> index;
+	private final Sequence[] seqs;
+	private final int[][] counts;
+	private final HashMap<Sequence, int[]> overflow = new HashMap<>();
+
+	public CoveringCounts(final Map<Sequence, Integer> index, final Sequence[] seqs) {
+		this.index = index;
+		this.seqs = seqs;
+		this.counts = new int[seqs.length][];
+	}
+
+	/** Assign dense ids to the given sequences */
+	public static Map<Sequence, Integer> index(final Collection<Sequence> sequences) {
+		final Map<Sequence, Integer> index = new HashMap<>();
+		for (final Sequence seq : sequences)
+			index.putIfAbsent(seq, index.size());
+		return index;
+	}
+
+	/** Collector that accumulates coverings into counts for the given index */
+	public static Collector<Multiset<Sequence>, CoveringCounts, CoveringCounts> collector(
+			final Map<Sequence, Integer> index) {
+		final Sequence[] seqs = new Sequence[index.size()];
+		for (final Entry<Sequence, Integer> entry : index.entrySet())
+			seqs[entry.getValue()] = entry.getKey();
+		return Collector.of(() -> new CoveringCounts(index, seqs), CoveringCounts::add, CoveringCounts::merge,
+				Collector.Characteristics.UNORDERED);
+	}
+
+	/**
+	 * Collector that accumulates changes from an old to a new covering into
+	 * counts sharing the index of the given counts
+	 */
+	public static Collector<Tuple2<Multiset<Sequence>, Multiset<Sequence>>, CoveringCounts, CoveringCounts> deltaCollector(
+			final CoveringCounts base) {
+		return Collector.of(() -> new CoveringCounts(base.index, base.seqs), (counts, change) -> {
+			counts.subtract(change._1);
+			counts.add(change._2);
+		}, CoveringCounts::merge, Collector.Characteristics.UNORDERED);
+	}
+
+	/** Get a deep copy of these counts */
+	public CoveringCounts copy() {
+		final CoveringCounts copy = new CoveringCounts(index, seqs);
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] != null)
+				copy.counts[id] = counts[id].clone();
+		}
+		for (final Entry<Sequence, int[]> entry : overflow.entrySet())
+			copy.overflow.put(entry.getKey(), entry.getValue().clone());
+		return copy;
+	}
+
+	/** Add counts for given covering */
+	public void add(final Multiset<Sequence> covering) {
+		for (final Multiset.Entry<Sequence> entry : covering.entrySet())
+			increment(entry.getElement(), entry.getCount(), 1);
+	}
+
+	/** Remove counts for given covering */
+	public void subtract(final Multiset<Sequence> covering) {
+		for (final Multiset.Entry<Sequence> entry : covering.entrySet())
+			increment(entry.getElement(), entry.getCount(), -1);
+	}
+
+	/** Merge other counts into these (which are returned) */
+	public CoveringCounts merge(final CoveringCounts other) {
+		for (int id = 0; id < other.counts.length; id++) {
+			if (other.counts[id] != null)
+				counts[id] = counts[id] == null ? other.counts[id] : add(counts[id], other.counts[id]);
+		}
+		for (final Entry<Sequence, int[]> entry : other.overflow.entrySet())
+			overflow.merge(entry.getKey(), entry.getValue(), CoveringCounts::add);
+		return this;
+	}
+
+	/**
+	 * Scale these counts (which are returned) by the given factor, rounding to
+	 * the nearest count, e.g. to extrapolate counts over a sample
+	 */
+	public CoveringCounts scale(final double factor) {
+		for (final int[] row : counts)
+			scale(row, factor);
+		for (final int[] row : overflow.values())
+			scale(row, factor);
+		return this;
+	}
+
+	/**
+	 * Clamp these counts (which are returned) to counts of the given no. of
+	 * transactions, e.g. after merging an extrapolated delta: negative counts
+	 * become zero and any excess over the no. of transactions is removed from
+	 * the fewest occurrences first
+	 */
+	public CoveringCounts clamp(final int noTransactions) {
+		for (final int[] row : counts)
+			clamp(row, noTransactions);
+		for (final int[] row : overflow.values())
+			clamp(row, noTransactions);
+		return this;
+	}
+
+	/** Get the no. of transactions whose covering contains seq occur times */
+	public int getCount(final Sequence seq, final int occur) {
+		final int[] row = getRow(seq);
+		return row != null && occur < row.length ? row[occur] : 0;
+	}
+
+	/**
+	 * M-step: convert counts to probabilities, padding with zero counts for
+	 * non-occurrences and adding probabilities for zero occurrences
+	 */
+	public Table<Sequence, Integer, Double> toProbabilities(final double noTransactions) {
+		final Table<Sequence, Integer, Double> probs = HashBasedTable.create();
+		for (int id = 0; id < seqs.length; id++)
+			putRow(probs, seqs[id], counts[id], noTransactions);
+		for (final Entry<Sequence, int[]> entry : overflow.entrySet())
+			putRow(probs, entry.getKey(), entry.getValue(), noTransactions);
+		return probs;
+	}
+
+	private void putRow(final Table<Sequence, Integer, Double> probs, final Sequence seq, final int[] row,
+			final double noTransactions) {
+		if (row == null)
+			return;
+		int maxOccur = row.length - 1;
+		while (maxOccur > 0 && row[maxOccur] == 0)
+			maxOccur--;
+		if (maxOccur == 0)
+			return; // sequence not in any covering
+		double rowSum = 0;
+		for (int occur = 1; occur <= maxOccur; occur++) {
+			final double prob = row[occur] / noTransactions;
+			probs.put(seq, occur, prob);
+			rowSum += prob;
+		}
+		probs.put(seq, 0, 1 - rowSum);
+	}
+
+	/** Counts of the occurrences of seq (null if never counted) */
+	int[] getRow(final Sequence seq) {
+		final Integer id = index.get(seq);
+		return id != null ? counts[id] : overflow.get(seq);
+	}
+
+	private void increment(final Sequence seq, final int occur, final int delta) {
+		final Integer id = index.get(seq);
+		if (id != null) {
+			counts[id] = grow(counts[id], occur);
+			counts[id][occur] += delta;
+		} else {
+			final int[] row = grow(overflow.get(seq), occur);
+			row[occur] += delta;
+			overflow.put(seq, row);
+		}
+	}
+
+	private static int[] grow(final int[] row, final int occur) {
+		if (row == null)
+			return new int[occur + 1];
+		if (occur < row.length)
+			return row;
+		return Arrays.copyOf(row, occur + 1);
+	}
+
+	private static void scale(final int[] row, final double factor) {
+		if (row == null)
+			return;
+		for (int occur = 0; occur < row.length; occur++)
+			row[occur] = (int) Math.round(row[occur] * factor);
+	}
+
+	private static void clamp(final int[] row, final int noTransactions) {
+		if (row == null)
+			return;
+		int excess = -noTransactions;
+		for (int occur = 1; occur < row.length; occur++) {
+			row[occur] = Math.max(row[occur], 0);
+			excess += row[occur];
+		}
+		for (int occur = 1; occur < row.length && excess > 0; occur++) {
+			final int removed = Math.min(row[occur], excess);
+			row[occur] -= removed;
+			excess -= removed;
+		}
+	}
+
+	private static int[] add(final int[] row, final int[] other) {
+		final int[] sum = grow(row, other.length - 1);
+		for (int occur = 0; occur < other.length; occur++)
+			sum[occur] += other[occur];
+		return sum;
+	}
+
+}
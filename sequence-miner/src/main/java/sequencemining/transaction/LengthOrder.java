@@ -0,0 +1,71 @@
+package sequencemining.transaction;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Permutation of (a subset of) the transactions by decreasing length, together
+ * with the cumulative (linear and quadratic) length so that a range of the
+ * permutation can be split into two halves of roughly equal work.
+ */
+public class LengthOrder {
+
+	private final int[] order;
+	private final long[] linearWeights;
+	private final long[] quadraticWeights;
+
+	public LengthOrder(final List<Transaction> transactions) {
+		this(transactions, IntStream.range(0, transactions.size()).toArray());
+	}
+
+	/** Order the given subset of the transactions (by index) */
+	public LengthOrder(final List<Transaction> transactions, final int[] subset) {
+		final Integer[] indices = new Integer[subset.length];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = subset[i];
+		Arrays.sort(indices, Comparator.comparingInt((final Integer i) -> transactions.get(i).size()).reversed()
+				.thenComparingInt(i -> i));
+
+		order = new int[indices.length];
+		linearWeights = new long[indices.length + 1];
+		quadraticWeights = new long[indices.length + 1];
+		for (int i = 0; i < indices.length; i++) {
+			order[i] = indices[i];
+			final long length = Math.max(transactions.get(indices[i]).size(), 1);
+			linearWeights[i + 1] = linearWeights[i] + length;
+			quadraticWeights[i + 1] = quadraticWeights[i] + length * length;
+		}
+	}
+
+	/** Index of the transaction at given position in the order */
+	public int get(final int position) {
+		return order[position];
+	}
+
+	/** Number of transactions */
+	public int size() {
+		return order.length;
+	}
+
+	/** Work of the transactions in positions [from, to) */
+	public long getWeight(final int from, final int to, final boolean quadratic) {
+		final long[] weights = quadratic ? quadraticWeights : linearWeights;
+		return weights[to] - weights[from];
+	}
+
+	/**
+	 * Position that splits [from, to) into two ranges of roughly equal work
+	 * (both non-empty if the range has at least two transactions)
+	 */
+	public int split(final int from, final int to, final boolean quadratic) {
+		final long[] weights = quadratic ? quadraticWeights : linearWeights;
+		final long half = weights[from] + (weights[to] - weights[from]) / 2;
+		int pos = Arrays.binarySearch(weights, from + 1, to, half);
+		if (pos < 0)
+			pos = -pos - 1;
+		return Math.max(from + 1, Math.min(pos, to - 1));
+	}
+
+}
@@ -0,0 +1,109 @@
+package sequencemining.transaction;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+
+/**
+ * Precomputed probabilities of the occurrences of a sequence, together with
+ * their negative logs and the position of the last nonzero probability.
+ * <p>
+ * Rows are immutable so a single instance is shared by all transactions that
+ * cache the sequence for a given model version. Occurrences beyond the end of
+ * the row have zero probability.
+ */
+public class LogProbabilities implements Serializable {
+	private static final long serialVersionUID = -2360412305346618225L;
+
+	/** Cost of a smoothed zero inner probability */
+	private static final double SMOOTHED_COST = -Math.log(Double.MIN_VALUE);
+
+	/** Row of zero probabilities (used to fill incomplete coverings) */
+	public static final LogProbabilities ZERO = new LogProbabilities(new double[] { 0. });
+
+	private final double[] probs;
+	private final double[] costs;
+	private final int lastNonZero;
+
+	private LogProbabilities(final double[] probs) {
+		this.probs = probs;
+		this.costs = new double[probs.length];
+		int last = -1;
+		for (int occur = 0; occur < probs.length; occur++) {
+			costs[occur] = -Math.log(probs[occur]);
+			if (probs[occur] != 0.)
+				last = occur;
+		}
+		this.lastNonZero = last;
+	}
+
+	/** Create row from a map of occurrences to probabilities */
+	public static LogProbabilities create(final Map<Integer, Double> row) {
+		int maxOccur = -1;
+		for (final int occur : row.keySet())
+			maxOccur = Math.max(maxOccur, occur);
+		final double[] probs = new double[maxOccur + 1];
+		for (final Entry<Integer, Double> entry : row.entrySet())
+			probs[entry.getKey()] = entry.getValue();
+		return new LogProbabilities(probs);
+	}
+
+	/** Precompute rows for all sequences in the given model */
+	public static Map<Sequence, LogProbabilities> compile(final Table<Sequence, Integer, Double> sequences) {
+		final Map<Sequence, LogProbabilities> rows = new HashMap<>();
+		for (final Sequence seq : sequences.rowKeySet())
+			rows.put(seq, create(sequences.row(seq)));
+		return rows;
+	}
+
+	/** Get probability of given no. of occurrences */
+	public double getProb(final int occur) {
+		return occur < probs.length ? probs[occur] : 0.;
+	}
+
+	/** Get -log probability of given no. of occurrences */
+	public double getCost(final int occur) {
+		return occur < costs.length ? costs[occur] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Get -log probability of given no. of occurrences, where zero inner
+	 * probabilities (i.e. followed by a nonzero probability) are smoothed
+	 */
+	public double getSmoothedCost(final int occur) {
+		if (occur >= costs.length)
+			return Double.POSITIVE_INFINITY;
+		if (probs[occur] == 0. && occur < lastNonZero)
+			return SMOOTHED_COST;
+		return costs[occur];
+	}
+
+	/** Get the largest no. of occurrences with nonzero probability */
+	public int getLastNonZero() {
+		return lastNonZero;
+	}
+
+	/** Check if all probabilities in this row are zero */
+	public boolean isZero() {
+		return lastNonZero < 0;
+	}
+
+	/** Number of occurrences (including zero) stored in this row */
+	public int size() {
+		return probs.length;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("(");
+		for (int occur = 0; occur < probs.length; occur++)
+			sb.append(occur == 0 ? "" : ",").append(probs[occur]);
+		return sb.append(")").toString();
+	}
+
+}
@@ -3,62 +3,83 @@ package sequencemining.transaction;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Table;
 
 import sequencemining.sequence.AbstractSequence;
 import sequencemining.sequence.Sequence;
+import sequencemining.util.LogFactorial;
 
 /** A transaction is an ordered list of items */
 public class Transaction extends AbstractSequence implements Serializable {
 	private static final long serialVersionUID = 3327396055332538091L;
 
 	/** Cached sequences and probabilities for this transaction */
-	private Table<Sequence, Integer, Double> cachedSequences;
+	private Map<Sequence, LogProbabilities> cachedSequences;
 
 	/** Cached covering for this transaction */
 	private Multiset<Sequence> cachedCovering;
 	private Multiset<Sequence> tempCachedCovering;
 
 	public void initializeCachedSequences(final Table<Sequence, Integer, Double> initProbs) {
-		final Table<Sequence, Integer, Double> probs = HashBasedTable.create();
-		for (final Sequence seq : initProbs.rowKeySet()) {
-			if (this.contains(seq))
-				probs.row(seq).putAll(initProbs.row(seq));
+		initializeCachedSequences(LogProbabilities.compile(initProbs));
+	}
+
+	public void initializeCachedSequences(final Map<Sequence, LogProbabilities> initProbs) {
+		initializeCachedSequences(initProbs, false);
+	}
+
+	/**
+	 * Initialize cached sequences, optionally caching zero-probability
+	 * singletons for items whose singletons aren't in the model (so that
+	 * incomplete coverings can be filled, e.g. after mini-batch updates)
+	 */
+	public void initializeCachedSequences(final Map<Sequence, LogProbabilities> initProbs,
+			final boolean coverAllItems) {
+		final Map<Sequence, LogProbabilities> probs = new HashMap<>();
+		for (final Entry<Sequence, LogProbabilities> entry : initProbs.entrySet()) {
+			if (this.contains(entry.getKey()))
+				probs.put(entry.getKey(), entry.getValue());
+		}
+		if (coverAllItems) {
+			for (final int item : this.items)
+				probs.putIfAbsent(new Sequence(item), LogProbabilities.ZERO);
 		}
 		cachedSequences = probs;
 	}
 
-	public Table<Sequence, Integer, Double> getCachedSequences() {
+	public Map<Sequence, LogProbabilities> getCachedSequences() {
 		return cachedSequences;
 	}
 
 	public void addSequenceCache(final Sequence candidate, final Map<Integer, Double> prob) {
-		cachedSequences.row(candidate).putAll(prob);
+		addSequenceCache(candidate, LogProbabilities.create(prob));
+	}
+
+	public void addSequenceCache(final Sequence candidate, final LogProbabilities prob) {
+		cachedSequences.put(candidate, prob);
 	}
 
 	public void removeSequenceCache(final Sequence candidate) {
-		cachedSequences.row(candidate).clear();
-	}
-
-	public void updateCachedSequences(final Table<Sequence, Integer, Double> newSequences) {
-		for (final Iterator<Sequence> it = cachedSequences.rowKeySet().iterator(); it.hasNext();) {
-			final Sequence seq = it.next();
-			if (newSequences.containsRow(seq)) { // TODO zeros to clear ok?
-				for (final Entry<Integer, Double> entry : cachedSequences.row(seq).entrySet())
-					entry.setValue(0.);
-				cachedSequences.row(seq).putAll(newSequences.row(seq));
-			} else if (seq.size() == 1) {
-				for (final Entry<Integer, Double> entry : cachedSequences.row(seq).entrySet())
-					entry.setValue(0.); // so we can fill incomplete coverings
-			} else
+		cachedSequences.remove(candidate);
+	}
+
+	public void updateCachedSequences(final Map<Sequence, LogProbabilities> newSequences) {
+		for (final Iterator<Entry<Sequence, LogProbabilities>> it = cachedSequences.entrySet().iterator(); it
+				.hasNext();) {
+			final Entry<Sequence, LogProbabilities> entry = it.next();
+			final LogProbabilities newProbs = newSequences.get(entry.getKey());
+			if (newProbs != null)
+				entry.setValue(newProbs);
+			else if (entry.getKey().size() == 1)
+				entry.setValue(LogProbabilities.ZERO); // so we can fill incomplete coverings
+			else
 				it.remove();
 		}
 	}
@@ -67,71 +88,54 @@ public class Transaction extends AbstractSequence implements Serializable {
 	public double getCachedCost() {
 		double totalCost = 0;
 		int lenCovering = 0;
-		// TODO triple check that this is right!!!
 		// Calculate (3.3)
-		for (final Sequence seq : cachedSequences.rowKeySet()) {
-			if (cachedCovering.contains(seq)) {
-				final int occur = cachedCovering.count(seq);
-				totalCost += -Math.log(cachedSequences.get(seq, occur));
-				for (int m = 1; m <= occur; m++) {
-					totalCost += sumLogRange(lenCovering + 1, lenCovering + seq.size());
-					lenCovering += seq.size();
-				}
-			} else if (seq.size() == 1 && sum(cachedSequences.row(seq).values()) == 0.) {
+		for (final Entry<Sequence, LogProbabilities> entry : cachedSequences.entrySet()) {
+			final Sequence seq = entry.getKey();
+			final int occur = cachedCovering.count(seq);
+			if (occur > 0) {
+				totalCost += entry.getValue().getCost(occur);
+				lenCovering += occur * seq.size();
+			} else if (seq.size() == 1 && entry.getValue().isZero()) {
 				continue; // ignore singletons used to fill incomplete coverings
 			} else {
-				totalCost += -Math.log(cachedSequences.get(seq, 0));
+				totalCost += entry.getValue().getCost(0);
 			}
 		}
-		return totalCost;
+		// Telescoped sum of log(lenCovering+1..lenCovering+|S|) over covering
+		return totalCost + LogFactorial.logFactorial(lenCovering);
 	}
 
 	/** Get cost of cached covering for structural EM-step */
-	public double getCachedCost(final Table<Sequence, Integer, Double> sequences) {
+	public double getCachedCost(final Map<Sequence, LogProbabilities> sequences) {
 		return calculateCachedCost(sequences, cachedCovering);
 	}
 
 	/** Get cost of temp. cached covering for structural EM-step */
-	public double getTempCachedCost(final Table<Sequence, Integer, Double> sequences) {
+	public double getTempCachedCost(final Map<Sequence, LogProbabilities> sequences) {
 		return calculateCachedCost(sequences, tempCachedCovering);
 	}
 
 	/** Calculate cached cost for structural EM-step */
-	private double calculateCachedCost(final Table<Sequence, Integer, Double> sequences,
+	private double calculateCachedCost(final Map<Sequence, LogProbabilities> sequences,
 			final Multiset<Sequence> covering) {
 		double totalCost = 0;
 		int lenCovering = 0;
-		for (final Sequence seq : cachedSequences.rowKeySet()) {
-			if (sequences.containsRow(seq)) {
-				if (covering.contains(seq)) {
-					final int occur = covering.count(seq);
-					totalCost += -Math.log(sequences.get(seq, occur));
-					for (int m = 1; m <= occur; m++) {
-						totalCost += sumLogRange(lenCovering + 1, lenCovering + seq.size());
-						lenCovering += seq.size();
-					}
-				} else if (seq.size() == 1 && sum(cachedSequences.row(seq).values()) == 0.) {
+		for (final Entry<Sequence, LogProbabilities> entry : cachedSequences.entrySet()) {
+			final Sequence seq = entry.getKey();
+			final LogProbabilities probs = sequences.get(seq);
+			if (probs != null) {
+				final int occur = covering.count(seq);
+				if (occur > 0) {
+					totalCost += probs.getCost(occur);
+					lenCovering += occur * seq.size();
+				} else if (seq.size() == 1 && entry.getValue().isZero()) {
 					continue; // ignore seqs used to fill incomplete coverings
 				} else {
-					totalCost += -Math.log(sequences.get(seq, 0));
+					totalCost += probs.getCost(0);
 				}
 			}
 		}
-		return totalCost;
-	}
-
-	private double sum(final Collection<Double> elems) {
-		double sum = 0;
-		for (final double elem : elems)
-			sum += elem;
-		return sum;
-	}
-
-	private double sumLogRange(final int a, final int b) {
-		double sum = 0;
-		for (int i = a; i <= b; i++)
-			sum += Math.log(i);
-		return sum;
+		return totalCost + LogFactorial.logFactorial(lenCovering);
 	}
 
 	public void setCachedCovering(final Multiset<Sequence> covering) {
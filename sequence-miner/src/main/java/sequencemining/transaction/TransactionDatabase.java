@@ -1,6 +1,13 @@
 package sequencemining.transaction;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import sequencemining.sequence.Sequence;
 
 /** Wrapper class for storing a database of transactions */
 public abstract class TransactionDatabase {
@@ -8,9 +15,86 @@ public abstract class TransactionDatabase {
 	/** Set to true if candidate generation iteration limit exceeded */
 	private boolean iterationLimitExceeded = false;
 
+	/** No. of transactions each transaction stands for (if sampled) */
+	private double sampleWeight = 1.;
+
 	/** Average cost across the transactions */
 	private double averageCost = Double.POSITIVE_INFINITY;
 
+	/** Probabilities of the sequences currently cached in the transactions */
+	private Map<Sequence, LogProbabilities> cachedSequences;
+
+	/** Covering counts of the committed model */
+	private CoveringCounts coveringCounts;
+
+	/** Sufficient statistics for the cost of the cached coverings */
+	private CostStatistics costStatistics;
+
+	/** Tracker of the transactions affected by changed probabilities */
+	private ChangeTracker changeTracker;
+
+	/** Transactions ordered by decreasing length (for load balancing) */
+	private volatile LengthOrder lengthOrder;
+
+	/** Set the probabilities currently cached in the transactions */
+	public void setCachedSequences(final Map<Sequence, LogProbabilities> cachedSequences) {
+		this.cachedSequences = cachedSequences;
+	}
+
+	/** Get the probabilities currently cached in the transactions */
+	public Map<Sequence, LogProbabilities> getCachedSequences() {
+		return cachedSequences;
+	}
+
+	/** Set the covering counts of the committed model */
+	public void setCoveringCounts(final CoveringCounts coveringCounts) {
+		this.coveringCounts = coveringCounts;
+	}
+
+	/** Get the covering counts of the committed model */
+	public CoveringCounts getCoveringCounts() {
+		return coveringCounts;
+	}
+
+	/** Set the sufficient statistics for the cost of the cached coverings */
+	public void setCostStatistics(final CostStatistics costStatistics) {
+		this.costStatistics = costStatistics;
+	}
+
+	/** Get the sufficient statistics for the cost of the cached coverings */
+	public CostStatistics getCostStatistics() {
+		return costStatistics;
+	}
+
+	/** Set the tracker of the transactions affected by changed probabilities */
+	public void setChangeTracker(final ChangeTracker changeTracker) {
+		this.changeTracker = changeTracker;
+	}
+
+	/** Get the tracker of the transactions affected by changed probabilities */
+	public ChangeTracker getChangeTracker() {
+		return changeTracker;
+	}
+
+	/** Get the transactions ordered by decreasing length */
+	public LengthOrder getLengthOrder() {
+		LengthOrder order = lengthOrder;
+		if (order == null) {
+			synchronized (this) {
+				order = lengthOrder;
+				if (order == null)
+					lengthOrder = order = new LengthOrder(getTransactionList());
+			}
+		}
+		return order;
+	}
+
+	/** Get the length of the longest transaction */
+	public int getMaxLength() {
+		final LengthOrder order = getLengthOrder();
+		return order.size() == 0 ? 0 : getTransactionList().get(order.get(0)).size();
+	}
+
 	/** Set the average cost */
 	public void setAverageCost(final double averageCost) {
 		this.averageCost = averageCost;
@@ -29,6 +113,32 @@ public abstract class TransactionDatabase {
 		return iterationLimitExceeded;
 	}
 
+	/**
+	 * Get a mini-batch of transactions sampled uniformly without replacement
+	 * using Floyd's algorithm, i.e. in time and space linear in the batch size
+	 * (the transactions are shared with this database)
+	 */
+	public TransactionDatabase sample(final int size, final Random random) {
+		final List<Transaction> transactionList = getTransactionList();
+		final int noTransactions = transactionList.size();
+		final Set<Integer> indices = new LinkedHashSet<>();
+		for (int j = noTransactions - Math.min(size, noTransactions); j < noTransactions; j++) {
+			final int t = random.nextInt(j + 1);
+			indices.add(indices.contains(t) ? j : t);
+		}
+		final List<Transaction> batch = new ArrayList<>(indices.size());
+		for (final int t : indices)
+			batch.add(transactionList.get(t));
+		final TransactionDatabase sample = new TransactionList(batch);
+		sample.sampleWeight = transactionList.size() / (double) batch.size();
+		return sample;
+	}
+
+	/** Get the no. of transactions each transaction stands for */
+	public double getSampleWeight() {
+		return sampleWeight;
+	}
+
 	/** Get a list of transactions */
 	public abstract List<Transaction> getTransactionList();
 
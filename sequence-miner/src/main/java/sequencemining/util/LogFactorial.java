@@ -0,0 +1,40 @@
+package sequencemining.util;
+
+/** Cumulative table of log-factorials, grown on demand */
+public class LogFactorial {
+
+	/** table[n] = log(n!) */
+	private static volatile double[] table = { 0. };
+
+	/** Get log(n!) */
+	public static double logFactorial(final int n) {
+		double[] logFacts = table;
+		if (n >= logFacts.length)
+			logFacts = grow(n);
+		return logFacts[n];
+	}
+
+	/** Get sum_{i=a}^{b} log(i) */
+	public static double sumLogRange(final int a, final int b) {
+		if (b < a)
+			return 0;
+		return logFactorial(b) - logFactorial(a - 1);
+	}
+
+	/** Extend the table so that it covers at least n */
+	private static synchronized double[] grow(final int n) {
+		final double[] oldTable = table;
+		if (n < oldTable.length)
+			return oldTable;
+		final double[] newTable = new double[Math.max(n + 1, 2 * oldTable.length)];
+		System.arraycopy(oldTable, 0, newTable, 0, oldTable.length);
+		for (int i = oldTable.length; i < newTable.length; i++)
+			newTable[i] = newTable[i - 1] + Math.log(i);
+		table = newTable;
+		return newTable;
+	}
+
+	private LogFactorial() {
+	}
+
+}
@@ -0,0 +1,54 @@
+package sequencemining.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sequencemining.sequence.Sequence;
+
+public class CandidateQueueTest {
+
+	@Test
+	public void testOrder() {
+
+		// Candidates must be polled by decreasing (absolute) support, then by
+		// length and items
+		final Random random = new Random(1);
+		final List<Sequence> candidates = new ArrayList<>();
+		final List<Integer> supports = new ArrayList<>();
+		final CandidateQueue queue = new CandidateQueue(1);
+		for (int i = 0; i < 1000; i++) {
+			final List<Integer> items = new ArrayList<>();
+			for (int j = 0; j < 1 + random.nextInt(3); j++)
+				items.add(random.nextInt(5));
+			final Sequence candidate = new Sequence(items);
+			final int support = (1 + random.nextInt(10)) * (random.nextBoolean() ? 1 : -1);
+			candidates.add(candidate);
+			supports.add(Math.abs(support));
+			queue.add(candidate, support);
+		}
+		queue.removeIf(candidate -> candidate.size() == 2);
+		final List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < candidates.size(); i++) {
+			if (candidates.get(i).size() != 2)
+				order.add(i);
+		}
+		Collections.sort(order, Comparator.comparing((final Integer i) -> -supports.get(i))
+				.thenComparing(i -> candidates.get(i), Sequence.ITEM_ORDER));
+		assertEquals(order.size(), queue.size());
+		for (final int i : order) {
+			assertEquals(supports.get(i).intValue(), Math.abs(queue.peekSupport()));
+			assertEquals(candidates.get(i), queue.poll());
+		}
+		assertEquals(true, queue.isEmpty());
+		assertEquals(null, queue.poll());
+
+	}
+
+}
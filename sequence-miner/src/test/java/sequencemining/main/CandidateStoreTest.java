@@ -0,0 +1,57 @@
+package sequencemining.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sequencemining.sequence.Sequence;
+
+public class CandidateStoreTest {
+
+	@Test
+	public void testSpilling() {
+
+		// Bounded store must behave like a map as entries are spilled to disk
+		// and moved back into memory
+		final Random random = new Random(1);
+		final List<Sequence> seqs = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			final List<Integer> items = new ArrayList<>();
+			for (int j = 0; j < 2 + random.nextInt(4); j++)
+				items.add(random.nextInt(10));
+			seqs.add(new Sequence(items));
+		}
+		for (final long memoryBudget : new long[] { 0, 8192, 65536 }) {
+			final Map<Sequence, Integer> expected = new HashMap<>();
+			try (final CandidateStore store = new CandidateStore(memoryBudget)) {
+				for (int step = 0; step < 20_000; step++) {
+					final Sequence seq = seqs.get(random.nextInt(seqs.size()));
+					switch (random.nextInt(4)) {
+					case 0:
+						expected.put(seq, step);
+						store.put(seq, step);
+						break;
+					case 1:
+						expected.remove(seq);
+						store.removeAll(seqs.subList(seqs.indexOf(seq), seqs.indexOf(seq) + 1));
+						break;
+					default:
+						assertEquals(expected.get(seq), store.get(seq));
+						assertEquals(expected.containsKey(seq), store.contains(seq));
+					}
+				}
+				assertEquals(expected.size(), store.size());
+				for (final Sequence seq : seqs)
+					assertEquals(expected.get(seq), store.get(seq));
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,100 @@
+package sequencemining.main;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.transaction.TransactionList;
+
+public class CooccurrenceIndexTest {
+
+	@Test
+	public void testSupportBoundsAndEstimates() throws IOException {
+
+		final URL url = this.getClass().getClassLoader().getResource("TOY.txt");
+		final File input = new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+
+		final Set<Sequence> sequences = new HashSet<>();
+		for (int item = 1; item <= 7; item++)
+			sequences.add(new Sequence(item));
+		sequences.add(new Sequence(1, 2));
+		final CooccurrenceIndex index = new CooccurrenceIndex();
+		index.update(sequences, transactions, ExecutionContext.commonPool());
+
+		// Bound is the no. of shared transactions, estimates are exact if all
+		// are sampled
+		for (final Sequence seq1 : sequences) {
+			for (final Sequence seq2 : sequences) {
+				final Sequence cand = new Sequence(seq1, seq2);
+				final int bound = index.getSupportBound(seq1, seq2);
+				assertEquals(getSupport(seq1, seq2, transactions), bound);
+				assertTrue(getSupport(cand, transactions) <= bound);
+				if (bound > 0) {
+					assertEquals(Math.max(getSupport(cand, transactions), 1),
+							index.estimateSupport(cand, seq1, seq2, bound));
+					final int estimate = index.estimateSupport(cand, seq1, seq2, 1);
+					assertTrue(estimate >= 1 && estimate <= bound);
+				}
+			}
+		}
+
+		// Bitmaps of removed sequences are kept for one more update
+		sequences.remove(new Sequence(1, 2));
+		index.update(sequences, transactions, ExecutionContext.commonPool());
+		assertTrue(index.getSupportBound(new Sequence(1, 2), new Sequence(3)) < Integer.MAX_VALUE);
+		index.update(sequences, transactions, ExecutionContext.commonPool());
+		assertEquals(Integer.MAX_VALUE, index.getSupportBound(new Sequence(1, 2), new Sequence(3)));
+
+	}
+
+	@Test
+	public void testTidSets() {
+
+		// Shared positions must not depend on the representation (sparse for
+		// low supports, bitmaps otherwise)
+		final int noTransactions = 1000;
+		final Random random = new Random(1);
+		final List<int[]> tidLists = new ArrayList<>();
+		final List<CooccurrenceIndex.TidSet> tidSets = new ArrayList<>();
+		for (final double density : new double[] { 0., 0.001, 0.01, 0.03, 0.1, 0.5, 1. }) {
+			final int[] tids = IntStream.range(0, noTransactions).filter(t -> random.nextDouble() < density)
+					.toArray();
+			tidLists.add(tids);
+			tidSets.add(CooccurrenceIndex.TidSet.create(tids, noTransactions));
+		}
+		for (int i = 0; i < tidSets.size(); i++) {
+			for (int j = 0; j < tidSets.size(); j++) {
+				final Set<Integer> other = IntStream.of(tidLists.get(j)).boxed().collect(Collectors.toSet());
+				final int[] expected = IntStream.of(tidLists.get(i)).filter(other::contains).toArray();
+				assertEquals(expected.length, tidSets.get(i).countShared(tidSets.get(j)));
+				assertArrayEquals(expected, tidSets.get(i).getShared(tidSets.get(j)));
+			}
+		}
+
+	}
+
+	private static int getSupport(final Sequence seq, final TransactionList transactions) {
+		return (int) transactions.getTransactionList().stream().filter(t -> t.contains(seq)).count();
+	}
+
+	private static int getSupport(final Sequence seq1, final Sequence seq2, final TransactionList transactions) {
+		return (int) transactions.getTransactionList().stream().filter(t -> t.contains(seq1) && t.contains(seq2))
+				.count();
+	}
+
+}
@@ -1,20 +1,39 @@
 package sequencemining.main;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import org.junit.Test;
 
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Ordering;
 
 import sequencemining.main.InferenceAlgorithms.InferGreedy;
 import sequencemining.main.InferenceAlgorithms.InferenceAlgorithm;
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.CandidateScan;
+import sequencemining.transaction.CoveringCounts;
+import sequencemining.transaction.LogProbabilities;
 import sequencemining.transaction.Transaction;
+import sequencemining.transaction.TransactionDatabase;
+import sequencemining.transaction.TransactionList;
+import sequencemining.util.Tuple2;
 
 public class SequenceMiningTest {
 
@@ -102,6 +121,322 @@ public class SequenceMiningTest {
 
 	}
 
+	@Test
+	public void testCandidateInference() {
+
+		final Map<Integer, Double> p1 = new HashMap<>();
+		p1.put(0, 0.6);
+		p1.put(1, 0.4);
+		final Map<Integer, Double> p2 = new HashMap<>();
+		p2.put(0, 0.9);
+		p2.put(1, 0.1);
+		final Map<Integer, Double> initProb = new HashMap<>();
+		initProb.put(0, 0.);
+		initProb.put(1, 1.);
+
+		final Transaction transaction = new Transaction(7, 3, 8, 9, 4, 5, 6, 8);
+		transaction.initializeCachedSequences(HashBasedTable.create());
+		transaction.addSequenceCache(new Sequence(3, 4, 5, 8), p1);
+		transaction.addSequenceCache(new Sequence(7, 9), p1);
+		transaction.addSequenceCache(new Sequence(8, 6), p2);
+		for (final int item : transaction)
+			transaction.addSequenceCache(new Sequence(item), p2);
+		final InferenceAlgorithm inferGreedy = new InferGreedy();
+		final Multiset<Sequence> covering = inferGreedy.infer(transaction);
+		assertEquals(true, covering.contains(new Sequence(3, 4, 5, 8)));
+		assertEquals(true, covering.contains(new Sequence(7, 9)));
+
+		// A candidate with the initial probabilities of a structural step wins
+		// the first greedy round (over the sequences it overlaps), so no
+		// greedy rounds of the committed covering can be reused
+		for (final Sequence candidate : Arrays.asList(new Sequence(3, 8), new Sequence(9, 4, 5))) {
+			transaction.addSequenceCache(candidate, initProb);
+			assertEquals(true, inferGreedy.infer(transaction).contains(candidate));
+			transaction.removeSequenceCache(candidate);
+		}
+
+	}
+
+	@Test
+	public void testOscillationState() {
+
+		// Strictly cheapest state wins, ties settle on the second state
+		assertEquals(0, SequenceMiningCore.getOscillationState(1., 2., 3.));
+		assertEquals(1, SequenceMiningCore.getOscillationState(2., 1., 3.));
+		assertEquals(2, SequenceMiningCore.getOscillationState(3., 2., 1.));
+		assertEquals(2, SequenceMiningCore.getOscillationState(1., 1., 2.));
+		assertEquals(2, SequenceMiningCore.getOscillationState(2., 1., 1.));
+		assertEquals(2, SequenceMiningCore.getOscillationState(1., 2., 1.));
+		assertEquals(0, SequenceMiningCore.getOscillationState(1., Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY));
+
+	}
+
+	@Test
+	public void testMiniBatches() throws IOException {
+
+		final URL url = this.getClass().getClassLoader().getResource("TOY.txt");
+		final File input = new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final int noTransactions = transactions.size();
+
+		// Batches are sampled without replacement
+		final Random random = new Random(1);
+		for (final int size : new int[] { 1, noTransactions / 2, noTransactions, 2 * noTransactions }) {
+			final TransactionDatabase batch = transactions.sample(size, random);
+			final int batchSize = Math.min(size, noTransactions);
+			assertEquals(batchSize, batch.size());
+			final Set<Transaction> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+			distinct.addAll(batch.getTransactionList());
+			assertEquals(batchSize, distinct.size());
+			assertEquals(noTransactions / (double) batchSize, batch.getSampleWeight(), 1e-12);
+		}
+
+		// Only mini-batch caches hold singletons missing from the model
+		final Transaction transaction = new Transaction(7, 3, 8);
+		final Map<Sequence, LogProbabilities> rows = new HashMap<>();
+		rows.put(new Sequence(7, 3), LogProbabilities.ZERO);
+		rows.put(new Sequence(8), LogProbabilities.ZERO);
+		transaction.initializeCachedSequences(rows);
+		assertEquals(rows.keySet(), transaction.getCachedSequences().keySet());
+		transaction.initializeCachedSequences(rows, true);
+		assertEquals(new HashSet<>(Arrays.asList(new Sequence(7, 3), new Sequence(7), new Sequence(3),
+				new Sequence(8))), transaction.getCachedSequences().keySet());
+
+	}
+
+	@Test
+	public void testAverageCost() throws IOException {
+
+		final URL url = this.getClass().getClassLoader().getResource("TOY.txt");
+		final File input = new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final ExecutionContext context = ExecutionContext.commonPool();
+		final InferenceAlgorithm inferGreedy = new InferGreedy();
+		EMStep.initializeCachedSequences(transactions,
+				SequenceMining.scanDatabaseToDetermineInitialProbabilities(input), context);
+		EMStep.hardEMStep(transactions, inferGreedy, context);
+
+		// Cost from sufficient statistics must match per-transaction cost
+		double expectedCost = 0;
+		for (final Transaction t : transactionList)
+			expectedCost += t.getCachedCost();
+		expectedCost /= transactionList.size();
+		assertEquals(expectedCost, EMStep.calculateAverageCost(transactions, context), 1e-12);
+
+		// Hard EM steps re-infer only affected transactions but must match
+		// inference from scratch
+		for (int step = 0; step < 3; step++) {
+			final List<Multiset<Sequence>> expectedCoverings = new ArrayList<>();
+			for (final Transaction t : transactionList)
+				expectedCoverings.add(inferGreedy.infer(t));
+			EMStep.hardEMStep(transactions, inferGreedy, context);
+			for (int i = 0; i < transactionList.size(); i++)
+				assertEquals(expectedCoverings.get(i), transactionList.get(i).getCachedCovering());
+		}
+
+		// Also when a candidate is temporarily added
+		final Sequence candidate = new Sequence(6, 3);
+		final CandidateScan scan = EMStep.scanCandidate(transactions, candidate, context);
+		assertEquals(2, scan.getSupport());
+		final List<Multiset<Sequence>> committedCoverings = new ArrayList<>();
+		for (final Transaction t : transactionList)
+			committedCoverings.add(t.getCachedCovering());
+		final double cost = EMStep.structuralEMStep(transactions, inferGreedy, candidate, scan, context)._1;
+		for (int i = 0; i < transactionList.size(); i++) { // evaluation doesn't touch the transactions
+			assertEquals(committedCoverings.get(i), transactionList.get(i).getCachedCovering());
+			if (transactionList.get(i).contains(candidate))
+				transactionList.get(i).setTempCachedCovering(scan.getCovering(i));
+		}
+		final Map<Sequence, LogProbabilities> newRows = LogProbabilities.compile(transactionList.stream()
+				.map(t -> t.contains(candidate) ? t.getTempCachedCovering() : t.getCachedCovering())
+				.collect(CoveringCounts.collector(CoveringCounts.index(Arrays.asList(candidate))))
+				.toProbabilities(transactionList.size()));
+		expectedCost = 0;
+		for (final Transaction t : transactionList) {
+			assertEquals(false, t.getCachedSequences().containsKey(candidate));
+			if (t.contains(candidate)) {
+				t.addSequenceCache(candidate, newRows.get(candidate));
+				expectedCost += t.getTempCachedCost(newRows);
+				t.removeSequenceCache(candidate);
+			} else {
+				expectedCost += t.getCachedCost(newRows);
+			}
+		}
+		expectedCost /= transactionList.size();
+		assertEquals(expectedCost, cost, 1e-12);
+
+	}
+
+	@Test
+	public void testScreening() throws IOException {
+
+		final URL url = this.getClass().getClassLoader().getResource("TOY.txt");
+		final File input = new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final ExecutionContext context = ExecutionContext.commonPool();
+		final InferenceAlgorithm inferGreedy = new InferGreedy();
+		EMStep.initializeCachedSequences(transactions,
+				SequenceMining.scanDatabaseToDetermineInitialProbabilities(input), context);
+		EMStep.hardEMStep(transactions, inferGreedy, context);
+
+		// Sample must only depend on the seed, not on the order the scan found
+		// the supporting transactions in (which is left unchanged)
+		final Sequence candidate = new Sequence(1, 3);
+		final CandidateScan scan = EMStep.scanCandidate(transactions, candidate, context);
+		assertEquals(4, scan.getSupport());
+		final int[] tids = scan.getTids();
+		final CandidateScan reversed = new CandidateScan();
+		for (int i = tids.length - 1; i >= 0; i--)
+			reversed.add(tids[i], scan.getMaxReps());
+		for (int seed = 0; seed < 10; seed++) {
+			assertEquals(EMStep.screenCandidate(transactions, inferGreedy, candidate, scan, 2, new Random(seed), context),
+					EMStep.screenCandidate(transactions, inferGreedy, candidate, reversed, 2, new Random(seed),
+							context),
+					0.);
+			assertArrayEquals(tids, scan.getTids());
+		}
+
+	}
+
+	@Test
+	public void testCandidateFrontier() throws IOException {
+
+		final URL url = this.getClass().getClassLoader().getResource("TOY.txt");
+		final File input = new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final ExecutionContext context = ExecutionContext.commonPool();
+		final boolean lazySupports = SequenceMiningCore.LAZY_SUPPORTS;
+		try {
+			for (final boolean lazy : new boolean[] { false, true }) {
+				for (final boolean indexed : new boolean[] { false, true }) {
+					SequenceMiningCore.LAZY_SUPPORTS = lazy;
+					final CandidateStore candidateSupports = new CandidateStore(0);
+					final HashMap<Sequence, Integer> supports = new HashMap<>();
+					final CooccurrenceIndex cooccurrences = indexed ? new CooccurrenceIndex() : null;
+					final CandidateFrontier frontier = new CandidateFrontier(candidateSupports, supports,
+							cooccurrences, 100_000);
+
+					// Frontier must yield the supported joins a full enumeration
+					// would (by decreasing support), as sequences are added to and
+					// removed from the model
+					final Set<Sequence> sequences = new HashSet<>();
+					for (int item = 1; item <= 7; item++) {
+						final Sequence seq = new Sequence(item);
+						sequences.add(seq);
+						supports.put(seq, getSupport(seq, transactions));
+					}
+					final CandidateStore rejected = new CandidateStore(0);
+					final List<Sequence> accepted = new ArrayList<>();
+					for (int step = 0; step < 3; step++) { // accept top candidate
+						if (indexed)
+							cooccurrences.update(sequences, transactions, context);
+						assertEquals(true, frontier.update(sequences, rejected, transactions, context));
+						final Sequence seq = SequenceMiningCore.pollCandidate(frontier.getQueue(), candidateSupports,
+								transactions, context);
+						assertEquals(getSupportedJoins(sequences, rejected, transactions).get(0), seq);
+						rejected.add(seq);
+						accepted.add(seq);
+						sequences.add(seq);
+						supports.put(seq, candidateSupports.get(seq));
+					}
+					sequences.remove(accepted.get(0));
+					sequences.remove(new Sequence(7));
+					if (indexed)
+						cooccurrences.update(sequences, transactions, context);
+					assertEquals(true, frontier.update(sequences, rejected, transactions, context));
+					final List<Sequence> polled = new ArrayList<>();
+					for (Sequence seq; (seq = SequenceMiningCore.pollCandidate(frontier.getQueue(), candidateSupports,
+							transactions, context)) != null;)
+						polled.add(seq);
+					assertEquals(getSupportedJoins(sequences, rejected, transactions), polled);
+
+					// Too many pairs to keep a frontier
+					assertEquals(false, new CandidateFrontier(candidateSupports, supports, null, 10)
+							.update(sequences, rejected, transactions, context));
+				}
+			}
+		} finally {
+			SequenceMiningCore.LAZY_SUPPORTS = lazySupports;
+		}
+
+	}
+
+	@Test
+	public void testCandidateFrontierParents() throws IOException {
+
+		final URL url = this.getClass().getClassLoader().getResource("TOY.txt");
+		final File input = new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
+		final TransactionList transactions = SequenceMining.readTransactions(input);
+		final ExecutionContext context = ExecutionContext.commonPool();
+		final CandidateStore candidateSupports = new CandidateStore(0);
+		final HashMap<Sequence, Integer> supports = new HashMap<>();
+		final CandidateFrontier frontier = new CandidateFrontier(candidateSupports, supports, null, 100_000);
+
+		// Candidate [1, 2, 3] is generated by [1] + [2, 3] and [1, 2] + [3]
+		final Set<Sequence> sequences = new HashSet<>();
+		for (final Sequence seq : Arrays.asList(new Sequence(1), new Sequence(2, 3), new Sequence(1, 2),
+				new Sequence(3))) {
+			sequences.add(seq);
+			supports.put(seq, getSupport(seq, transactions));
+		}
+		final CandidateStore rejected = new CandidateStore(0);
+		assertEquals(true, frontier.update(sequences, rejected, transactions, context));
+		final Sequence cand = new Sequence(1, 2, 3);
+		final Tuple2<Sequence, Sequence> first = frontier.getParents().get(cand);
+		final Tuple2<Sequence, Sequence> other = first._1.size() == 1
+				? new Tuple2<>(new Sequence(1, 2), new Sequence(3)) : new Tuple2<>(new Sequence(1), new Sequence(2, 3));
+
+		// Removing the first parent pair must point the candidate at the other
+		sequences.remove(first._1.size() > 1 ? first._1 : first._2);
+		assertEquals(true, frontier.update(sequences, rejected, transactions, context));
+		assertEquals(other, frontier.getParents().get(cand));
+
+		// Candidate [1, 2, 1, 2, 1, 2] is generated by both orientations of
+		// [1, 2] and [1, 2, 1, 2] (the first added to the model recorded as its
+		// parents), so removing [1, 2] leaves the reverse orientation of the
+		// dropped pair until it is dropped too
+		final Sequence repeated = new Sequence(1, 2, 1, 2, 1, 2);
+		for (final boolean live : new boolean[] { false, true }) {
+			final CandidateFrontier repeats = new CandidateFrontier(candidateSupports, supports, null, 100_000);
+			sequences.clear();
+			final List<Sequence> added = new ArrayList<>(Arrays.asList(new Sequence(1, 2, 1, 2), new Sequence(1, 2)));
+			if (live) // also generated by [1] + [2, 1, 2, 1, 2]
+				added.addAll(Arrays.asList(new Sequence(1), new Sequence(2, 1, 2, 1, 2)));
+			for (final Sequence seq : added) {
+				sequences.add(seq);
+				supports.put(seq, getSupport(seq, transactions));
+				assertEquals(true, repeats.update(sequences, rejected, transactions, context));
+			}
+			assertEquals(new Tuple2<>(new Sequence(1, 2), new Sequence(1, 2, 1, 2)), repeats.getParents().get(repeated));
+			sequences.remove(new Sequence(1, 2));
+			assertEquals(true, repeats.update(sequences, rejected, transactions, context));
+			assertEquals(live ? new Tuple2<>(new Sequence(1), new Sequence(2, 1, 2, 1, 2)) : null,
+					repeats.getParents().get(repeated));
+		}
+
+	}
+
+	/** Supported joins by decreasing support */
+	private static List<Sequence> getSupportedJoins(final Set<Sequence> sequences, final CandidateStore rejected,
+			final TransactionList transactions) {
+		final Set<Sequence> joins = new HashSet<>();
+		for (final Sequence seq1 : sequences) {
+			for (final Sequence seq2 : sequences) {
+				final Sequence cand = new Sequence(seq1, seq2);
+				if (seq1 != seq2 && !rejected.contains(cand) && getSupport(cand, transactions) > 0)
+					joins.add(cand);
+			}
+		}
+		return Ordering.natural().onResultOf((final Sequence seq) -> getSupport(seq, transactions)).reverse()
+				.compound(Sequence.ITEM_ORDER).sortedCopy(joins);
+	}
+
+	private static int getSupport(final Sequence seq, final TransactionList transactions) {
+		return (int) transactions.getTransactionList().stream().filter(t -> t.contains(seq)).count();
+	}
+
 	private double sumLogRange(final int a, final int b) {
 		double sum = 0;
 		for (int i = a; i <= b; i++)
@@ -109,6 +444,41 @@ public class SequenceMiningTest {
 		return sum;
 	}
 
+	@Test
+	public void testDiagonalBlocks() {
+
+		// Waves of blocks must cover the pairs of the join loop in order
+		final int len = 120;
+		final List<int[]> expected = new ArrayList<>();
+		for (int k = 0; k < 2 * len - 2; k++) {
+			for (int i = 0; i < len && i < k + 1; i++) {
+				for (int j = 0; j < len && i + j < k + 1; j++) {
+					if (k <= i + j && i != j)
+						expected.add(new int[] { i, j });
+				}
+			}
+		}
+		final List<int[]> actual = new ArrayList<>();
+		int kstart = 0;
+		while (kstart < 2 * len - 2) {
+			final List<int[]> blocks = SequenceMiningCore.getDiagonalBlocks(len, kstart, 0, 5000);
+			for (final int[] block : blocks) {
+				assertEquals(kstart, block[0]);
+				for (int k = block[0]; k < block[2]; k++) {
+					for (int i = Math.max(0, k - len + 1); i < len && i <= k; i++) {
+						if (i != k - i)
+							actual.add(new int[] { i, k - i });
+					}
+				}
+				kstart = block[2];
+			}
+		}
+		assertEquals(expected.size(), actual.size());
+		for (int p = 0; p < expected.size(); p++)
+			assertEquals(Arrays.toString(expected.get(p)), Arrays.toString(actual.get(p)));
+
+	}
+
 	// @Test
 	// public void testCombLoop() {
 	//
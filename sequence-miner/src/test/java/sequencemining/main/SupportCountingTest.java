@@ -1,16 +1,27 @@
 package sequencemining.main;
 
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
+import sequencemining.main.ExecutionContext.Phase;
 import sequencemining.sequence.Sequence;
+import sequencemining.transaction.LengthOrder;
+import sequencemining.transaction.Transaction;
 import sequencemining.transaction.TransactionList;
 
 public class SupportCountingTest {
@@ -27,6 +38,45 @@ public class SupportCountingTest {
 		assertEquals(1, supp);
 	}
 
+	@Test
+	public void testBalancedStream() {
+
+		final List<Transaction> transactionList = new ArrayList<>();
+		final Random random = new Random(1);
+		for (int i = 0; i < 500; i++) {
+			final List<Integer> items = new ArrayList<>();
+			for (int j = random.nextInt(i % 50 == 0 ? 200 : 10); j >= 0; j--)
+				items.add(random.nextInt(20));
+			transactionList.add(new Transaction(items));
+		}
+		final TransactionList transactions = new TransactionList(transactionList);
+
+		// Every transaction is visited exactly once (however the stream is
+		// planned)
+		for (final boolean plan : new boolean[] { false, true }) {
+			final ExecutionContext context = new ExecutionContext(4, 3, plan);
+			for (int call = 0; call < 3; call++) {
+				final Map<Transaction, Long> visits = context.run(Phase.E_STEP,
+						() -> context.stream(Phase.E_STEP, transactions)
+								.collect(groupingBy(t -> t, IdentityHashMap::new, counting())));
+				assertEquals(transactionList.size(), visits.size());
+				for (final Transaction t : transactionList)
+					assertEquals(1, (long) visits.get(t));
+			}
+			context.shutdown();
+		}
+
+		// Splits halve the work of a range
+		final LengthOrder order = transactions.getLengthOrder();
+		for (int i = 1; i < order.size(); i++)
+			assertTrue(transactionList.get(order.get(i - 1)).size() >= transactionList.get(order.get(i)).size());
+		final int mid = order.split(0, order.size(), true);
+		final long prefix = order.getWeight(0, mid, true);
+		final long suffix = order.getWeight(mid, order.size(), true);
+		assertTrue(Math.abs(prefix - suffix) <= order.getWeight(mid - 1, mid + 1, true));
+		assertTrue(mid < order.size() / 2);
+	}
+
 	public File getTestFile(final String filename) throws UnsupportedEncodingException {
 		final URL url = this.getClass().getClassLoader().getResource(filename);
 		return new File(java.net.URLDecoder.decode(url.getPath(), "UTF-8"));
@@ -0,0 +1,104 @@
+package sequencemining.transaction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Table;
+
+import sequencemining.sequence.Sequence;
+import sequencemining.util.Tuple2;
+
+public class CoveringCountsTest {
+
+	@Test
+	public void testCoveringCounts() {
+
+		final Sequence s1 = new Sequence(1, 2);
+		final Sequence s2 = new Sequence(3);
+		final Sequence s3 = new Sequence(4); // not indexed
+
+		final List<Multiset<Sequence>> coverings = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			final Multiset<Sequence> covering = HashMultiset.create();
+			covering.add(s1, i % 4);
+			covering.add(s2, i % 3 == 0 ? 1 : 0);
+			covering.add(s3, i % 5 == 0 ? 2 : 0);
+			coverings.add(covering);
+		}
+
+		final Map<Sequence, Integer> index = CoveringCounts.index(Arrays.asList(s1, s2));
+		final CoveringCounts counts = coverings.parallelStream().collect(CoveringCounts.collector(index));
+		assertEquals(250, counts.getCount(s1, 3));
+		assertEquals(334, counts.getCount(s2, 1));
+		assertEquals(200, counts.getCount(s3, 2));
+		assertEquals(0, counts.getCount(s3, 1));
+
+		// Probabilities are padded and sum to one
+		final Table<Sequence, Integer, Double> probs = counts.toProbabilities(coverings.size());
+		assertEquals(0., probs.get(s3, 1), 1e-15);
+		assertEquals(0.8, probs.get(s3, 0), 1e-15);
+		assertEquals(0.25, probs.get(s1, 0), 1e-15);
+
+		// Removing a covering undoes adding it
+		counts.subtract(coverings.get(0));
+		assertEquals(333, counts.getCount(s2, 1));
+
+		// Applying changes to a copy leaves the original untouched
+		final Multiset<Sequence> newCovering = HashMultiset.create();
+		newCovering.add(s1, 3);
+		final CoveringCounts delta = Arrays.asList(new Tuple2<>(coverings.get(1), newCovering)).stream()
+				.collect(CoveringCounts.deltaCollector(counts));
+		final CoveringCounts changed = counts.copy().merge(delta);
+		assertEquals(251, changed.getCount(s1, 3));
+		assertEquals(249, changed.getCount(s1, 1));
+		assertEquals(250, counts.getCount(s1, 3));
+
+		// Scaling a sampled delta extrapolates it (rounding to whole counts)
+		delta.scale(2.4);
+		assertEquals(2, delta.getCount(s1, 3));
+		assertEquals(-2, delta.getCount(s1, 1));
+	}
+
+	@Test
+	public void testClampExtrapolatedCounts() {
+
+		// Sample over-represents transactions where the candidate displaces s,
+		// which is only used in 10 of the 100 transactions
+		final Sequence s = new Sequence(1);
+		final Sequence cand = new Sequence(1, 2);
+		final List<Multiset<Sequence>> coverings = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			final Multiset<Sequence> covering = HashMultiset.create();
+			covering.add(s, i < 10 ? 1 : 0);
+			coverings.add(covering);
+		}
+		final CoveringCounts committed = coverings.stream()
+				.collect(CoveringCounts.collector(CoveringCounts.index(Arrays.asList(s, cand))));
+		final List<Tuple2<Multiset<Sequence>, Multiset<Sequence>>> sample = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+			sample.add(new Tuple2<>(coverings.get(i), HashMultiset.create(Arrays.asList(cand))));
+		final CoveringCounts delta = sample.stream().collect(CoveringCounts.deltaCollector(committed));
+
+		// Extrapolating the sample to 60 supporting transactions removes s
+		// from 60 coverings and adds the candidate to 60
+		final CoveringCounts counts = committed.copy().merge(delta.scale(12)).clamp(coverings.size());
+		assertEquals(0, counts.getCount(s, 1));
+		assertEquals(60, counts.getCount(cand, 1));
+		final Table<Sequence, Integer, Double> probs = counts.toProbabilities(coverings.size());
+		for (final double prob : probs.values())
+			assertEquals(true, prob >= 0 && prob <= 1);
+
+		// Excess occurrences over the no. of transactions are removed
+		final CoveringCounts excess = committed.copy().merge(delta.scale(3)).clamp(coverings.size());
+		assertEquals(100, excess.getCount(cand, 1));
+	}
+
+}